@@ -12,11 +12,16 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.*;
 
+import com.appl.library.BitmapPool;
 import com.appl.library.Carousel;
+import com.appl.library.CarouselAdapter;
 import com.appl.library.CoverFlowCarousel;
+import com.appl.library.CoverImageLoader;
 
 
 public class MainActivity extends ActionBarActivity {
+    private final BitmapPool mBitmapPool = new BitmapPool(8 * 1024 * 1024);
+    private final CoverImageLoader mImageLoader = new CoverImageLoader();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -26,9 +31,24 @@ public class MainActivity extends ActionBarActivity {
         CoverFlowCarousel carousel = (CoverFlowCarousel)findViewById(R.id.carousel);
         final MyAdapter adapter = new MyAdapter();
         carousel.setAdapter(adapter);
+        carousel.setCircular(true);
         carousel.setSelection(adapter.getCount()/2); //adapter.getCount()-1
         //carousel.setSlowDownCoefficient(1);
         carousel.setSpacing(0.5f);
+        //covers for first screen are created while activity is starting, first frame then only binds them
+        carousel.warmUp(new Carousel.ViewFactory() {
+            @Override
+            public View createView(ViewGroup parent, int viewType) {
+                return adapter.createView();
+            }
+        }, 0);
+        mImageLoader.setBitmapPool(mBitmapPool);
+        carousel.setRecyclerListener(new Carousel.RecyclerListener() {
+            @Override
+            public void onMovedToScrapHeap(View view) {
+                mImageLoader.cancel(((MyFrame) view).getImageView());
+            }
+        });
 
         Button addButton = (Button)findViewById(R.id.add_botton);
         addButton.setOnClickListener(new View.OnClickListener() {
@@ -40,11 +60,25 @@ public class MainActivity extends ActionBarActivity {
     }
 
 
-    private class MyAdapter extends BaseAdapter {
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mImageLoader.shutdown();
+        mBitmapPool.clear();
+    }
+
+    private class MyAdapter extends CarouselAdapter {
         private int[] mResourceIds = {R.drawable.poster1, R.drawable.poster2, R.drawable.poster3, R.drawable.poster4,
             R.drawable.poster5};
 
-        private int mCount = mResourceIds.length * 5;
+        private int mCount = mResourceIds.length;
+
+        private final View.OnClickListener mClickListener = new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                Toast.makeText(MainActivity.this, "clicked position:" + ((MyFrame) v).getPosition(), Toast.LENGTH_SHORT).show();
+            }
+        };
 
         @Override
         public int getCount() {
@@ -63,36 +97,42 @@ public class MainActivity extends ActionBarActivity {
 
         @Override
         public View getView(final int position, View convertView, ViewGroup parent) {
-            MyFrame v;
-            if (convertView == null) {
-                v = new MyFrame(MainActivity.this);
-            } else {
-                v = (MyFrame)convertView;
-            }
+            final MyFrame v = convertView == null ? createView() : (MyFrame) convertView;
 
-            v.setImageResource(mResourceIds[position % mResourceIds.length]);
-            v.setOnClickListener(new View.OnClickListener() {
-                @Override
-                public void onClick(View v) {
-                    Toast.makeText(MainActivity.this, "clicked position:"+position,Toast.LENGTH_SHORT).show();
-                }
-            });
+            final int resId = mResourceIds[position % mResourceIds.length];
+            mImageLoader.load(CoverImageLoader.Source.fromResource(getResources(), resId), v.getImageView(), position,
+                (Carousel) parent);
+            v.setPosition(position);
 
+            return v;
+        }
 
+        MyFrame createView() {
+            final MyFrame v = new MyFrame(MainActivity.this);
+            v.setOnClickListener(mClickListener);
             return v;
         }
 
         public void addView(){
             mCount++;
-            notifyDataSetChanged();
+            notifyItemInserted(mCount - 1);
         }
     }
 
     public static class MyFrame extends FrameLayout{
         private ImageView mImageView;
+        private int mPosition;
+
+        public ImageView getImageView(){
+            return mImageView;
+        }
+
+        public int getPosition() {
+            return mPosition;
+        }
 
-        public void setImageResource(int resId){
-            mImageView.setImageResource(resId);
+        public void setPosition(int position) {
+            mPosition = position;
         }
 
         public MyFrame(Context context) {
@@ -0,0 +1,95 @@
+package com.appl.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of cover flow geometry for one frame of children. Reference implementation evaluates the same formulas with
+ * {@link Math} for every child, as CoverFlowCarousel did before transform engine.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CoverFlowTransformBenchmark {
+    private static final int HEIGHT       = 1280;
+    private static final int CHILD_HEIGHT = 240;
+    private static final float SPACING    = 0.5f;
+    private static final int CHILD_COUNT  = 12;
+
+    private final CoverFlowTransform mTransform = new CoverFlowTransform();
+    private final int[] mCenters = new int[CHILD_COUNT];
+    private int mScrollY;
+
+    @Setup
+    public void setUp() {
+        final int pitch = (int) (CHILD_HEIGHT * SPACING);
+        for (int i = 0; i < CHILD_COUNT; i++) {
+            mCenters[i] = (i - CHILD_COUNT / 2) * pitch + HEIGHT / 2;
+        }
+    }
+
+    @Benchmark
+    public void engine(Blackhole bh) {
+        //scroll offset changes every frame like during fling
+        mScrollY = (mScrollY + 7) % 120;
+        final CoverFlowTransform t = mTransform;
+        t.beginFrame(HEIGHT, mScrollY, CHILD_HEIGHT, SPACING);
+        for (int i = 0; i < CHILD_COUNT; i++) {
+            t.compute(mCenters[i]);
+            bh.consume(t.mRotation);
+            bh.consume(t.mTranslation);
+            bh.consume(t.mScale);
+        }
+    }
+
+    @Benchmark
+    public void reference(Blackhole bh) {
+        mScrollY = (mScrollY + 7) % 120;
+        final CoverFlowTransform t = mTransform;
+        for (int i = 0; i < CHILD_COUNT; i++) {
+            final float position = getRelativePosition(mCenters[i]);
+            final float multiplier = t.mTuningWidgetSize / (float) HEIGHT;
+
+            float y = position / t.mRadius;
+            final float yClamped = Math.max(-1f, Math.min(1f, y));
+            final float angleOnCircle = (float) (Math.acos(yClamped) / Math.PI * 180.0f - 90.0f);
+            final float rotation = t.mMaxRotationAngle * clamp(position, t.mRotationThreshold * multiplier) - angleOnCircle;
+
+            final float translation = CHILD_HEIGHT * t.mAdjustPositionMultiplier * SPACING
+                    * clamp(position, t.mAdjustPositionThreshold * multiplier) * (float) Math.sin(Math.acos(y));
+
+            final float scale = 1 + (t.mMaxScaleFactor - 1) * (1 - Math.abs(clamp(position, t.mScalingThreshold * multiplier)))
+                    - t.mPerspectiveMultiplier * (float) (1 - Math.sin(Math.acos(yClamped)));
+
+            bh.consume(rotation);
+            bh.consume(translation);
+            bh.consume(scale);
+        }
+    }
+
+    private float getRelativePosition(int pixelPos) {
+        final int half = HEIGHT / 2;
+        final int centerPos = mScrollY + half;
+        return (pixelPos - centerPos) / ((float) half);
+    }
+
+    private static float clamp(float position, float threshold) {
+        if (position < -threshold) return -1f;
+        if (position > threshold) return 1f;
+        return position / threshold;
+    }
+}
@@ -0,0 +1,73 @@
+package com.appl.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookup of item in center of widget from scroll offset. Scan is the search over centers of attached children which
+ * Carousel.updateReverseOrderIndex did before position model, its cost grows with number of children.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ItemPositionModelBenchmark {
+    private static final int HEIGHT       = 1280;
+    private static final int CHILD_HEIGHT = 240;
+    private static final int PITCH        = 120;
+
+    @Param({"12", "100", "1000"})
+    public int childCount;
+
+    private final ItemPositionModel mModel = new ItemPositionModel();
+    private int[] mCenters;
+    private int mScrollY;
+
+    @Setup
+    public void setUp() {
+        mCenters = new int[childCount];
+        for (int i = 0; i < childCount; i++) {
+            mCenters[i] = i * PITCH + CHILD_HEIGHT / 2;
+        }
+    }
+
+    private int nextCenter() {
+        mScrollY = (mScrollY + 7) % (childCount * PITCH);
+        return mScrollY + HEIGHT / 2;
+    }
+
+    @Benchmark
+    public int model() {
+        final int screenCenter = nextCenter();
+        mModel.set(0, mCenters[0], PITCH, CHILD_HEIGHT, childCount, false);
+        return mModel.getPositionAt(screenCenter);
+    }
+
+    @Benchmark
+    public int scan() {
+        final int screenCenter = nextCenter();
+        int minDiff = Integer.MAX_VALUE;
+        int minDiffIndex = -1;
+        for (int i = 0; i < childCount; i++) {
+            final int diff = Math.abs(screenCenter - mCenters[i]);
+            if (diff < minDiff) {
+                minDiff = diff;
+                minDiffIndex = i;
+            }
+        }
+        return minDiffIndex;
+    }
+}
@@ -0,0 +1,60 @@
+package com.appl.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recycler traffic of scrolling list, one view leaves window and one enters it per operation. Both cycles are
+ * expected to allocate nothing, gc profiler shows it as zero allocation rate.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RecyclerPoolBenchmark {
+    private static final int VIEW_TYPES = 2;
+
+    private final RecyclerPool<Object> mPool = new RecyclerPool<>();
+    private int mPosition;
+
+    @Setup
+    public void setUp() {
+        mPool.setViewTypeCount(VIEW_TYPES);
+        for (int type = 0; type < VIEW_TYPES; type++) {
+            for (int i = 0; i < RecyclerPool.DEFAULT_MAX_PER_TYPE / 2; i++) {
+                mPool.put(type, new Object());
+            }
+        }
+    }
+
+    @Benchmark
+    public Object scrapCycle() {
+        final int type = mPosition++ & 1;
+        final Object view = mPool.get(type);
+        mPool.put(type, view);
+        return view;
+    }
+
+    /**
+     * View is prefetched for position ahead and later taken when position scrolls in
+     */
+    @Benchmark
+    public Object boundCycle() {
+        final int position = mPosition++;
+        final int type = position & 1;
+        mPool.putBound(position, type, mPool.get(type));
+        return mPool.getBound(position);
+    }
+}
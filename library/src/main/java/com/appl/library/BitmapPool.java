@@ -0,0 +1,211 @@
+package com.appl.library;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Pool of mutable bitmaps which are no longer used, grouped by width, height and config. Decoders reuse them through
+ * {@link android.graphics.BitmapFactory.Options#inBitmap}, so bitmaps are not allocated over and over while scrolling. Size of pool is bounded by number of bytes, least recently used
+ * groups are evicted first.
+ * <p/>
+ * Hit, miss and eviction counters can be used to tune size of pool. Pool is thread safe.
+ */
+public class BitmapPool {
+    private final LinkedHashMap<Key, ArrayList<Bitmap>> mGroups = new LinkedHashMap<>(16, 0.75f, true);
+    private final Key mLookupKey = new Key();
+    private int mMaxBytes;
+    private int mCurrentBytes;
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mPutCount;
+    private int mEvictionCount;
+
+    /**
+     * @param maxBytes maximal size of pooled bitmaps in bytes
+     */
+    public BitmapPool(int maxBytes) {
+        if (maxBytes < 0) throw new IllegalArgumentException("Pool size must not be negative");
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Take bitmap of exactly given size and config out of pool. Content of bitmap is undefined, use it only when it
+     * will be overwritten completely, e.g. by decoder.
+     *
+     * @return pooled bitmap or null if there is none of this size
+     */
+    public synchronized Bitmap getDirty(int width, int height, Bitmap.Config config) {
+        mLookupKey.set(width, height, config);
+        final ArrayList<Bitmap> group = mGroups.get(mLookupKey);
+        if (group == null || group.isEmpty()) {
+            mMissCount++;
+            return null;
+        }
+
+        final Bitmap bitmap = group.remove(group.size() - 1);
+        mCurrentBytes -= getBytes(bitmap);
+        mHitCount++;
+        return bitmap;
+    }
+
+    /**
+     * Take bitmap of given size and config out of pool, or create new one when there is none. Bitmap is cleared
+     * to transparent color.
+     */
+    public Bitmap get(int width, int height, Bitmap.Config config) {
+        final Bitmap bitmap = getDirty(width, height, config);
+        if (bitmap == null) {
+            return Bitmap.createBitmap(width, height, config);
+        }
+        bitmap.eraseColor(0);
+        return bitmap;
+    }
+
+    /**
+     * Return bitmap which is no longer used by anyone. Bitmaps which can't be reused are recycled.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) return;
+
+        final int bytes = getBytes(bitmap);
+        if (!bitmap.isMutable() || bitmap.getConfig() == null || bytes > mMaxBytes) {
+            bitmap.recycle();
+            return;
+        }
+
+        mLookupKey.set(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        ArrayList<Bitmap> group = mGroups.get(mLookupKey);
+        if (group == null) {
+            final Key key = new Key();
+            key.set(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+            group = new ArrayList<>();
+            mGroups.put(key, group);
+        }
+        group.add(bitmap);
+        mCurrentBytes += bytes;
+        mPutCount++;
+
+        trimToSize(mMaxBytes);
+    }
+
+    /**
+     * Evict least recently used bitmaps until pool takes at most given number of bytes
+     */
+    public synchronized void trimToSize(int maxBytes) {
+        final Iterator<Map.Entry<Key, ArrayList<Bitmap>>> groups = mGroups.entrySet().iterator();
+        while (mCurrentBytes > maxBytes && groups.hasNext()) {
+            final ArrayList<Bitmap> group = groups.next().getValue();
+            while (mCurrentBytes > maxBytes && !group.isEmpty()) {
+                final Bitmap bitmap = group.remove(0);
+                mCurrentBytes -= getBytes(bitmap);
+                mEvictionCount++;
+                bitmap.recycle();
+            }
+            if (group.isEmpty()) {
+                groups.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    public synchronized void setMaxSize(int maxBytes) {
+        if (maxBytes < 0) throw new IllegalArgumentException("Pool size must not be negative");
+        mMaxBytes = maxBytes;
+        trimToSize(maxBytes);
+    }
+
+    public synchronized int getMaxSize() {
+        return mMaxBytes;
+    }
+
+    /**
+     * @return number of bytes taken by pooled bitmaps
+     */
+    public synchronized int getCurrentSize() {
+        return mCurrentBytes;
+    }
+
+    /**
+     * @return number of requests which were served from pool
+     */
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return number of requests for which there was no bitmap of requested size in pool
+     */
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return number of bitmaps returned to pool
+     */
+    public synchronized int getPutCount() {
+        return mPutCount;
+    }
+
+    /**
+     * @return number of bitmaps dropped because pool was over its size
+     */
+    public synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    public synchronized void resetCounters() {
+        mHitCount = 0;
+        mMissCount = 0;
+        mPutCount = 0;
+        mEvictionCount = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BitmapPool[size=" + mCurrentBytes + "/" + mMaxBytes + ", hits=" + mHitCount + ", misses=" + mMissCount
+                + ", puts=" + mPutCount + ", evictions=" + mEvictionCount + "]";
+    }
+
+    private static int getBytes(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getByteCount();
+    }
+
+    private static final class Key {
+        int           mWidth;
+        int           mHeight;
+        Bitmap.Config mConfig;
+
+        void set(int width, int height, Bitmap.Config config) {
+            mWidth = width;
+            mHeight = height;
+            mConfig = config;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            final Key key = (Key) o;
+            return mWidth == key.mWidth && mHeight == key.mHeight && mConfig == key.mConfig;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mWidth;
+            result = 31 * result + mHeight;
+            result = 31 * result + (mConfig != null ? mConfig.hashCode() : 0);
+            return result;
+        }
+    }
+}
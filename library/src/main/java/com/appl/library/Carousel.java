@@ -2,18 +2,25 @@ package com.appl.library;
 
 import android.content.Context;
 import android.database.DataSetObserver;
+import android.graphics.Canvas;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.support.v4.view.ViewCompat;
 import android.util.AttributeSet;
-import android.util.Log;
 import android.view.MotionEvent;
 import android.view.VelocityTracker;
 import android.view.View;
 import android.view.ViewConfiguration;
 import android.view.ViewGroup;
+import android.view.WindowManager;
 import android.widget.Adapter;
 import android.widget.Scroller;
 
-import java.lang.ref.WeakReference;
-import java.util.LinkedList;
+import java.util.concurrent.Executor;
 
 /**
  * @author Martin Appl (appl.m@seznam.cz)
@@ -43,9 +50,47 @@ public class Carousel extends ViewGroup {
      * Aligning in progress
      */
     protected static final int TOUCH_STATE_ALIGN = 3;
-    private static final String TAG = "Carousel";
+    /**
+     * Children are never drawn into layers
+     */
+    public static final int LAYER_POLICY_NONE = 0;
+    /**
+     * Children are drawn into hardware layers while list moves, so that moving them only recomposes layers.
+     * Layers are released when list comes to rest. Without hardware acceleration no layers are used.
+     */
+    public static final int LAYER_POLICY_HARDWARE_WHILE_MOVING = 1;
+    /**
+     * Children are always drawn into software layers. Use only when item views need software rendering.
+     */
+    public static final int LAYER_POLICY_SOFTWARE = 2;
+    /**
+     * How far ahead in time prefetch looks when deciding how many items to prepare
+     */
+    private static final int PREFETCH_LOOKAHEAD_MS = 150;
+    /**
+     * Smooth scroll animates over at most this many items, more distant targets are jumped closer first
+     */
+    public static final int SMOOTH_SCROLL_MAX_ITEMS = 3;
+    private static final int SMOOTH_SCROLL_DURATION_MS = 400;
+    /**
+     * Duration of alignment to nearest item after slow release
+     */
+    private static final int ALIGN_DURATION_MS = 200;
+    /**
+     * Number of items on each side of fling destination prepared while fling runs
+     */
+    private static final int FLING_TARGET_NEIGHBOURS = 1;
+    /**
+     * In circular mode scroll offset and virtual positions are moved back towards zero when list rests further than this
+     */
+    private static final int CIRCULAR_REBASE_THRESHOLD = 1 << 24;
+    /**
+     * Maximal distance from previous position in which selected item is looked up by its stable id after data change
+     */
+    private static final int STABLE_ID_SEARCH_DISTANCE = 64;
+    private static final long NO_VERSION = Long.MIN_VALUE;
     protected final int NO_VALUE = Integer.MIN_VALUE + 1777;
-    protected final ViewCache<View> mCache = new ViewCache<>();
+    protected final RecyclerPool<View> mCache = new RecyclerPool<>();
     private final Scroller mScroller = new Scroller(getContext());
     protected int             mTouchSlop;
     protected int mTouchState = TOUCH_STATE_RESTING;
@@ -55,6 +100,14 @@ public class Carousel extends ViewGroup {
     protected float mSpacing             = 1f;
     protected int mChildWidth  = 360;
     protected int mChildHeight = 240;
+    /**
+     * Layout params shared by all children without their own, children are always measured to child size
+     */
+    private final LayoutParams mChildLayoutParams = new LayoutParams(mChildWidth, mChildHeight);
+    /**
+     * Maps scroll offset to adapter positions without iterating children
+     */
+    private final ItemPositionModel mPositions = new ItemPositionModel();
     protected Adapter mAdapter;
     protected int mTopEdge    = NO_VALUE;
     protected int mBottomEdge = NO_VALUE;
@@ -63,6 +116,11 @@ public class Carousel extends ViewGroup {
     private   int             mMaximumVelocity;
     //    private float mLastMotionX;
     private   float           mLastMotionY;
+    /**
+     * Moves of finger not applied yet, they are applied once per frame
+     */
+    private   float           mPendingDragDelta;
+    private   boolean         mUnbufferedDispatch;
     /**
      * Index of view in center of screen, which is most in foreground
      */
@@ -71,24 +129,106 @@ public class Carousel extends ViewGroup {
      * Movement speed will be divided by this coefficient;
      */
     private   int   mSlowDownCoefficient = 1;
+    /**
+     * Position on which running fling lands, NO_VALUE when list is not flung
+     */
+    private   int   mFlingTargetPosition = NO_VALUE;
+    /**
+     * In circular mode list wraps around and has no edges. Selection and positions of children are then virtual
+     * positions, which map onto adapter modulo its count.
+     */
+    private boolean mCircular;
     private   int     mSelection;
     private int mFirstVisibleChild;
     private int mLastVisibleChild;
+    /**
+     * Distance in pixels beyond edges of widget in which children are still kept attached. Negative value means one child height
+     */
+    private int mOffscreenMargin = -1;
+    private int mLayerPolicy = LAYER_POLICY_HARDWARE_WHILE_MOVING;
+    /**
+     * Maximal number of items bound ahead in direction of scroll, 0 disables prefetch
+     */
+    private int mPrefetchMaxCount = RecyclerPool.DEFAULT_MAX_BOUND;
+    private final Prefetcher mPrefetcher = new Prefetcher();
+    private final ScrollAnimator mScrollAnimator = new ScrollAnimator();
+    /**
+     * Scroll offset for which children were last refilled and updated
+     */
+    private int mLayoutScrollY = NO_VALUE;
+    /**
+     * Children were added or laid out since last update
+     */
+    private boolean mLayoutDirty = true;
+    private long mFrameIntervalNanos = 16666667;
+    private long mFrameStartNanos;
+    /**
+     * Current scroll speed in pixels per second, positive when scroll offset grows
+     */
+    private float mScrollVelocity;
     private final DataSetObserver mDataObserver = new DataSetObserver() {
 
         @Override
         public void onChanged() {
+            mCache.invalidateBound();
+            if (mAdapter.hasStableIds() && rebindStableItems()) return;
             reset();
         }
 
         @Override
         public void onInvalidated() {
             removeAllViews();
+            mCache.clear();
             invalidate();
         }
 
+    };
+    private final CarouselAdapter.RangeObserver mRangeObserver = new CarouselAdapter.RangeObserver() {
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            insertItems(positionStart, itemCount);
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            removeItems(positionStart, itemCount);
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount) {
+            rebindItems(positionStart, itemCount);
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            moveItems(fromPosition, toPosition, itemCount);
+        }
+
     };
     private OnItemSelectedListener mOnItemSelectedListener;
+    private RecyclerListener       mRecyclerListener;
+    private OnFrameMetricsListener mFrameMetricsListener;
+    /**
+     * Timings of frames, null when metrics are disabled
+     */
+    private CarouselMetrics mMetrics;
+    /**
+     * Trace sections and events, null when tracing is disabled
+     */
+    private CarouselTrace mTrace;
+    /**
+     * Recorder of received touch events and selection jumps, null when not recording
+     */
+    private GestureRecorder mGestureRecorder;
+    /**
+     * Children detached while they are matched to new positions by stable ids
+     */
+    private View[] mStableScrap = new View[0];
+    /**
+     * State restored before first layout, applied when window is built
+     */
+    private SavedState mPendingState;
 
     public Carousel(Context context) {
         this(context, null);
@@ -115,9 +255,19 @@ public class Carousel extends ViewGroup {
     public void setAdapter(Adapter adapter) {
         if (mAdapter != null) {
             mAdapter.unregisterDataSetObserver(mDataObserver);
+            if (mAdapter instanceof CarouselAdapter) {
+                ((CarouselAdapter) mAdapter).unregisterRangeObserver(mRangeObserver);
+            }
         }
         mAdapter = adapter;
         mAdapter.registerDataSetObserver(mDataObserver);
+        if (mAdapter instanceof CarouselAdapter) {
+            ((CarouselAdapter) mAdapter).registerRangeObserver(mRangeObserver);
+        }
+
+        //views of previous adapter can't be reused
+        removeAllViewsInLayout();
+        mCache.setViewTypeCount(adapter.getViewTypeCount());
         reset();
     }
 
@@ -125,56 +275,280 @@ public class Carousel extends ViewGroup {
         return getChildAt(mReverseOrderIndex);
     }
 
+    /**
+     * @return adapter position of selected item
+     */
     public int getSelection() {
-        return mSelection;
+        return toAdapterPosition(mSelection);
+    }
+
+    /**
+     * Let list wrap around, so that first item follows after last one. Selected item stays in center of widget.
+     */
+    public void setCircular(boolean circular) {
+        if (mCircular == circular) return;
+
+        final int selection = getSelection();
+        mCircular = circular;
+        mSelection = selection;
+        if (mAdapter == null || mAdapter.getCount() == 0) return;
+
+        mCache.invalidateBound();
+        jumpToPosition(selection);
+    }
+
+    public boolean isCircular() {
+        return mCircular;
+    }
+
+    /**
+     * @return adapter position item on virtual position shows
+     */
+    protected int toAdapterPosition(int position) {
+        if (!mCircular || mAdapter == null || mAdapter.getCount() == 0) return position;
+        return floorMod(position, mAdapter.getCount());
+    }
+
+    /**
+     * @return true when there is item on virtual position
+     */
+    private boolean hasItem(int position) {
+        return mCircular ? mAdapter.getCount() > 0 : position >= 0 && position < mAdapter.getCount();
+    }
+
+    /**
+     * @return virtual position showing given adapter position, which is nearest to current selection
+     */
+    private int getNearestVirtualPosition(int position) {
+        if (!mCircular) return position;
+
+        final int count = mAdapter.getCount();
+        int delta = floorMod(position - toAdapterPosition(mSelection), count);
+        if (delta > count / 2) delta -= count;
+        return mSelection + delta;
+    }
+
+    private static int floorMod(int x, int y) {
+        final int m = x % y;
+        return m < 0 ? m + y : m;
     }
 
+    /**
+     * Move selected item to center of widget instantly. Only items around target position are bound, so cost of jump
+     * does not depend on its distance.
+     */
     public void setSelection(int position) {
+        checkPosition(position);
+        if (mGestureRecorder != null) {
+            mGestureRecorder.recordSelection(position);
+        }
+        jumpToPosition(getNearestVirtualPosition(position));
+    }
+
+    /**
+     * Scroll selected item to center of widget with animation. Distant targets are first jumped to
+     * {@link #SMOOTH_SCROLL_MAX_ITEMS} items away from them, so that items in between are never bound.
+     */
+    public void smoothScrollToPosition(int position) {
+        checkPosition(position);
+        if (getChildCount() == 0) {
+            jumpToPosition(position);
+            return;
+        }
+
+        final int target = getNearestVirtualPosition(position);
+        final int distance = target - mSelection;
+        if (Math.abs(distance) > SMOOTH_SCROLL_MAX_ITEMS) {
+            jumpToPosition(target - Integer.signum(distance) * SMOOTH_SCROLL_MAX_ITEMS);
+        }
+
+        updatePositionModel();
+        alignTo(target, SMOOTH_SCROLL_DURATION_MS);
+    }
+
+    /**
+     * Animate item nearest to center of widget into center, list comes to rest when it is already there
+     */
+    private void alignToNearestItem() {
+        if (!updatePositionModel()) {
+            setTouchState(TOUCH_STATE_RESTING);
+            return;
+        }
+        alignTo(mPositions.getPositionAt(getScrollY() + getHeight() / 2), ALIGN_DURATION_MS);
+    }
+
+    /**
+     * Animate item on position into center of widget, position model must be up to date
+     */
+    private void alignTo(int position, int duration) {
+        final int dy = getScrollYForPosition(position) - getScrollY();
+        if (!mScroller.isFinished()) {
+            mScroller.forceFinished(true);
+            mScrollAnimator.stop();
+        }
+        if (dy == 0) {
+            setTouchState(TOUCH_STATE_RESTING);
+            return;
+        }
+
+        mScroller.startScroll(0, getScrollY(), 0, dy, duration);
+        setTouchState(TOUCH_STATE_ALIGN);
+        mScrollAnimator.start();
+    }
+
+    private void checkPosition(int position) {
         if (mAdapter == null)
             throw new IllegalStateException("You are trying to set selection on widget without adapter");
         if (position < 0 || position > mAdapter.getCount() - 1)
             throw new IllegalArgumentException("Position index must be in range of adapter values (0 - getCount()-1)");
+    }
+
+    /**
+     * @return scroll offset in which item on position is in center of widget, position model must be up to date
+     */
+    private int getScrollYForPosition(int position) {
+        final int top = mPositions.getCenter(position) - (mChildHeight - mChildHeight / 2);
+        return top - (getHeight() / 2 - mChildHeight / 2);
+    }
 
+    /**
+     * Drop attached children and lay out new window around position, with item on position in center of widget at
+     * current scroll offset. Edges are computed from adapter count for the new window.
+     */
+    private void jumpToPosition(int position) {
+        final int oldSelection = mSelection;
         mSelection = position;
+        //explicit selection wins over restored one
+        mPendingState = null;
+        if (!mScroller.isFinished()) {
+            mScroller.forceFinished(true);
+            mScrollAnimator.stop();
+        }
+        if (mTouchState == TOUCH_STATE_FLING || mTouchState == TOUCH_STATE_ALIGN) {
+            setTouchState(TOUCH_STATE_RESTING);
+        }
+        if (getChildCount() == 0) {
+            //first layout centers selection
+            requestLayout();
+            return;
+        }
 
-        reset();
+        recycleAllViews();
+        mReverseOrderIndex = -1;
+
+        final View v = obtainView(position);
+        addAndMeasureChild(v, LAYOUT_MODE_AFTER);
+        layoutCentered(v, 0);
+
+        mFirstVisibleChild = position;
+        mLastVisibleChild = position;
+        updateEdges();
+
+        refill();
+
+        mReverseOrderIndex = indexOfChild(v);
+        v.setSelected(true);
+        updateLayoutIfNeeded();
+        invalidate();
+
+        if (oldSelection != position && mOnItemSelectedListener != null) {
+            mOnItemSelectedListener.onItemSelected(v, toAdapterPosition(position));
+        }
     }
 
-    @Override
-    public void computeScroll() {
-        final int centerItemTop = getHeight() / 2 - mChildHeight / 2;
-        final int centerItemBottom = getHeight() / 2 + mChildHeight / 2;
-        Log.i(TAG, "topEdge: " + mTopEdge + "/" + mBottomEdge);
+    /**
+     * Lay out child in center of widget at current scroll offset
+     *
+     * @param offset distance by which list is scrolled past child being exactly in center
+     */
+    private void layoutCentered(View v, int offset) {
+        final int horizontalCenter = getWidth() / 2;
+        final int verticalCenter = getHeight() / 2;
+        final int left = horizontalCenter - v.getMeasuredWidth() / 2;
+        final int right = left + v.getMeasuredWidth();
+        final int top = getScrollY() + verticalCenter - v.getMeasuredHeight() / 2 - offset;
+        final int bottom = top + v.getMeasuredHeight();
+        v.layout(left, top, right, bottom);
+    }
 
-        if (mTopEdge != NO_VALUE && mScroller.getFinalY() > mTopEdge - centerItemTop) {
-//            Log.i(TAG, "setFinalY1"+(mTopEdge - centerItemTop));
-            mScroller.setFinalY(mTopEdge - centerItemTop);
+    /**
+     * Advance running fling or alignment by one frame
+     */
+    private void computeScrollFrame() {
+        mFrameStartNanos = System.nanoTime();
+        if (mScroller.getFinalY() > getMaxScrollY()) {
+            mScroller.setFinalY(getMaxScrollY());
         }
-        if (mBottomEdge != NO_VALUE && mScroller.getFinalY() < mBottomEdge - centerItemBottom) {
-//            Log.i(TAG, "setFinalY2 "+(mBottomEdge - centerItemBottom));
-            mScroller.setFinalY(mBottomEdge - centerItemBottom);
+        if (mScroller.getFinalY() < getMinScrollY()) {
+            mScroller.setFinalY(getMinScrollY());
         }
         if (mScroller.computeScrollOffset()) {
             if (mScroller.getFinalY() == mScroller.getCurrY()) {
-                Log.i(TAG, "stopScroll" + mScroller.getFinalY());
+                //last step lands exactly on target, it has to be applied before animation ends
+                scrollTo(0, mScroller.getFinalY());
                 mScroller.abortAnimation();
-                mTouchState = TOUCH_STATE_RESTING;
-                clearChildrenCache();
+                setTouchState(TOUCH_STATE_RESTING);
             } else {
                 final int y = mScroller.getCurrY();
+                mScrollVelocity = mScroller.getFinalY() > y ? mScroller.getCurrVelocity() : -mScroller.getCurrVelocity();
                 scrollTo(0, y);
 
-                postInvalidate();
+                mScrollAnimator.start();
             }
-        } else if (mTouchState == TOUCH_STATE_FLING) {
-            mTouchState = TOUCH_STATE_RESTING;
-            clearChildrenCache();
+        } else if (mTouchState == TOUCH_STATE_FLING || mTouchState == TOUCH_STATE_ALIGN) {
+            scrollTo(0, mScroller.getFinalY());
+            setTouchState(TOUCH_STATE_RESTING);
+        }
+
+        updateLayoutIfNeeded();
+        if (mTouchState == TOUCH_STATE_RESTING) {
+            rebaseCircularPositions();
         }
+    }
+
+    /**
+     * Refill children for current scroll offset, update selection and let subclasses update children. Does nothing
+     * when neither scroll offset nor attached children changed since last time, so resting list does no work.
+     */
+    private void updateLayoutIfNeeded() {
+        final int scrollY = getScrollY();
+        if (scrollY == mLayoutScrollY && !mLayoutDirty) return;
 
+        mLayoutScrollY = scrollY;
+        final CarouselMetrics metrics = mMetrics;
+        final CarouselTrace trace = mTrace;
+        final long start = metrics != null ? System.nanoTime() : 0;
+        final long bindBefore = metrics != null ? metrics.getBindNanos() : 0;
+
+        if (trace != null) trace.beginSection(CarouselTrace.SECTION_REFILL);
         refill();
         updateReverseOrderIndex();
+        mLayoutDirty = false;
+        if (trace != null) {
+            trace.endSection();
+            trace.record(CarouselTrace.EVENT_REFILL, mFirstVisibleChild, mLastVisibleChild);
+        }
+
+        final long layoutEnd = metrics != null ? System.nanoTime() : 0;
+        if (metrics != null) {
+            //binds triggered by refill are reported separately
+            metrics.addLayout(layoutEnd - start - (metrics.getBindNanos() - bindBefore));
+        }
+
+        if (trace != null) trace.beginSection(CarouselTrace.SECTION_TRANSFORM);
+        onChildrenLayoutChanged();
+        if (trace != null) trace.endSection();
+        if (metrics != null) {
+            metrics.addTransform(System.nanoTime() - layoutEnd);
+        }
     }
 
+    /**
+     * Called when scroll offset or attached children changed, after children were refilled. Subclasses can update
+     * properties of children which depend on their position here.
+     */
+    protected void onChildrenLayoutChanged() {
+    }
 
     @Override
     protected void onLayout(boolean changed, int l, int t, int r, int b) {
@@ -182,27 +556,23 @@ public class Carousel extends ViewGroup {
             return;
         }
         View v = null;
+        final SavedState restored = mPendingState;
+        mPendingState = null;
+        final int firstBefore = mFirstVisibleChild;
+        final int lastBefore = mLastVisibleChild;
         if (getChildCount() == 0) {
-            v = getViewFromAdapter(mSelection);
+            int offset = 0;
+            if (restored != null) {
+                mSelection = getRestoredSelection(restored);
+                offset = restored.mOffset;
+            }
+            v = obtainView(mSelection);
             addAndMeasureChild(v, LAYOUT_MODE_AFTER);
-            //todo check
-            final int horizontalCenter = getWidth() / 2;
-            final int verticalCenter = getHeight() / 2;
-            final int left = horizontalCenter - v.getMeasuredWidth() / 2;
-            final int right = left + v.getMeasuredWidth();
-            final int top = verticalCenter - v.getMeasuredHeight() / 2;
-            final int bottom = top + v.getMeasuredHeight();
-            v.layout(left, top, right, bottom);
+            layoutCentered(v, offset);
 
             mFirstVisibleChild = mSelection;
             mLastVisibleChild = mSelection;
-
-            if (mLastVisibleChild == mAdapter.getCount() - 1) {
-                mTopEdge = top;
-            }
-            if (mFirstVisibleChild == 0) {
-                mBottomEdge = bottom;
-            }
+            updateEdges();
         }
 
         refill();
@@ -210,35 +580,43 @@ public class Carousel extends ViewGroup {
         if (v != null) {
             mReverseOrderIndex = indexOfChild(v);
             v.setSelected(true);
-        } else {
-            updateReverseOrderIndex();
         }
-    }
-
-    private void updateReverseOrderIndex() {
-        int oldReverseIndex = mReverseOrderIndex;
-        final int screenCenter = getScrollY() + getHeight() / 2;
-        final int c = getChildCount();
+        //window was built or changed its items, or widget changed size; otherwise repeated layout pass does no work
+        if (v != null || changed || mFirstVisibleChild != firstBefore || mLastVisibleChild != lastBefore) {
+            mLayoutDirty = true;
+        }
+        updateLayoutIfNeeded();
 
-        int minDiff = Integer.MAX_VALUE;
-        int minDiffIndex = -1;
+        //list was saved while moving, let it come to rest on item instead of between two
+        if (restored != null && restored.mTouchState != TOUCH_STATE_RESTING && restored.mOffset != 0) {
+            alignToNearestItem();
+        }
+    }
 
-        int viewCenter, diff;
-        for (int i = 0; i < c; i++) {
-            viewCenter = getChildCenter(i);
-            diff = Math.abs(screenCenter - viewCenter);
-            if (diff < minDiff) {
-                minDiff = diff;
-                minDiffIndex = i;
-            }
+    /**
+     * @return position on which saved item is now, found by its stable id when possible
+     */
+    private int getRestoredSelection(SavedState state) {
+        final int count = mAdapter.getCount();
+        int position = Math.min(state.mPosition, count - 1);
+        if (state.mHasId && mAdapter.hasStableIds()) {
+            final int found = findItemPosition(state.mId, position, count);
+            if (found >= 0) position = found;
         }
+        return position;
+    }
 
-        if (minDiff != Integer.MAX_VALUE) {
-            mReverseOrderIndex = minDiffIndex;
+    private void updateReverseOrderIndex() {
+        int oldReverseIndex = mReverseOrderIndex;
+        if (updatePositionModel()) {
+            //attached children cover the center, unless list is still being filled
+            int position = mPositions.getPositionAt(getScrollY() + getHeight() / 2);
+            if (position < mFirstVisibleChild) position = mFirstVisibleChild;
+            if (position > mLastVisibleChild) position = mLastVisibleChild;
+            mReverseOrderIndex = position - mFirstVisibleChild;
         }
 
         if (oldReverseIndex != mReverseOrderIndex) {
-            Log.i(TAG, "updateReverseOrderIndex: " + oldReverseIndex + " / " + mReverseOrderIndex);
             View oldSelected = getChildAt(oldReverseIndex);
             View newSelected = getChildAt(mReverseOrderIndex);
 
@@ -250,8 +628,11 @@ public class Carousel extends ViewGroup {
             }
 
             mSelection = mFirstVisibleChild + mReverseOrderIndex;
+            if (mTrace != null) {
+                mTrace.record(CarouselTrace.EVENT_SELECTION, toAdapterPosition(mSelection), mReverseOrderIndex);
+            }
             if (mOnItemSelectedListener != null) {
-                mOnItemSelectedListener.onItemSelected(newSelected, mSelection);
+                mOnItemSelectedListener.onItemSelected(newSelected, toAdapterPosition(mSelection));
             }
         }
 
@@ -302,21 +683,59 @@ public class Carousel extends ViewGroup {
      * @return child which was actually added to container, subclasses can override to introduce frame views
      */
     protected View addAndMeasureChild(final View child, final int layoutMode) {
-        if (child.getLayoutParams() == null) {
-            LayoutParams params = new LayoutParams(mChildWidth,
-                    mChildHeight);
-            child.setLayoutParams(params);
+        return addAndMeasureChildAt(child, layoutMode == LAYOUT_MODE_TO_BEFORE ? 0 : -1);
+    }
+
+    /**
+     * Adds a view as a child view at given index and takes care of measuring it
+     *
+     * @param index index among children, -1 means after the last child
+     */
+    protected View addAndMeasureChildAt(final View child, final int index) {
+        LayoutParams params = child.getLayoutParams();
+        if (params == null) {
+            params = mChildLayoutParams;
+        }
+        addViewInLayout(child, index, params, true);
+        if (mTrace != null) {
+            mTrace.record(CarouselTrace.EVENT_CHILD_ADDED, index < 0 ? getChildCount() - 1 : index, getChildCount());
         }
-        Log.i(TAG, "addAndMeasureChild: " + getChildCount());
-        final int index = layoutMode == LAYOUT_MODE_TO_BEFORE ? 0 : -1;
-        addViewInLayout(child, index, child.getLayoutParams(), true);
 
+        measureItemView(child);
+        applyLayerPolicy(child);
+        mLayoutDirty = true;
+
+        return child;
+    }
+
+    /**
+     * Measure child at item size. Recycled and prefetched views usually carry measurement of the same size already, it
+     * is kept unless their content requested layout.
+     */
+    private void measureItemView(View child) {
         final int pwms = MeasureSpec.makeMeasureSpec(mChildWidth, MeasureSpec.EXACTLY);
         final int phms = MeasureSpec.makeMeasureSpec(mChildHeight, MeasureSpec.EXACTLY);
+        if (!child.isLayoutRequested() && hasExactMeasurement(child, pwms, phms)) return;
+
+        if (mTrace != null) mTrace.beginSection(CarouselTrace.SECTION_MEASURE);
         measureChild(child, pwms, phms);
-        child.setDrawingCacheEnabled(isChildrenDrawnWithCacheEnabled());
+        if (mTrace != null) mTrace.endSection();
+    }
 
-        return child;
+    /**
+     * @return true when child specs derived from given parent specs are exact and child is already measured at them,
+     * so measuring it again would give the same result
+     */
+    private boolean hasExactMeasurement(View child, int parentWidthSpec, int parentHeightSpec) {
+        final LayoutParams lp = child.getLayoutParams();
+        if (lp == null) return false;
+
+        final int widthSpec = getChildMeasureSpec(parentWidthSpec, getPaddingLeft() + getPaddingRight(), lp.width);
+        final int heightSpec = getChildMeasureSpec(parentHeightSpec, getPaddingTop() + getPaddingBottom(), lp.height);
+        return MeasureSpec.getMode(widthSpec) == MeasureSpec.EXACTLY
+                && MeasureSpec.getMode(heightSpec) == MeasureSpec.EXACTLY
+                && child.getMeasuredWidth() == MeasureSpec.getSize(widthSpec)
+                && child.getMeasuredHeight() == MeasureSpec.getSize(heightSpec);
     }
 
     /**
@@ -326,6 +745,9 @@ public class Carousel extends ViewGroup {
         if (mAdapter == null || mAdapter.getCount() == 0) {
             return;
         }
+        if (!mCircular && mSelection >= mAdapter.getCount()) {
+            mSelection = mAdapter.getCount() - 1;
+        }
 
         if (getChildCount() == 0) {
             requestLayout();
@@ -333,89 +755,653 @@ public class Carousel extends ViewGroup {
         }
 
         View selectedView = getChildAt(mReverseOrderIndex);
-        int selectedBottom = selectedView.getBottom();
-        int selectedTop = selectedView.getTop();
-
+        if (selectedView == null) {
+            recycleAllViews();
+            mReverseOrderIndex = -1;
+            requestLayout();
+            return;
+        }
+        final int selectedTop = selectedView.getTop();
 
-        removeAllViewsInLayout();
-        mTopEdge = NO_VALUE;
-        mBottomEdge = NO_VALUE;
+        recycleAllViews();
 
-        View v = mAdapter.getView(mSelection, null, this);
+        View v = obtainView(mSelection);
         addAndMeasureChild(v, LAYOUT_MODE_AFTER);
         mReverseOrderIndex = 0;
 
-        final int top = selectedBottom + v.getMeasuredHeight();
-        final int bottom = selectedTop + v.getMeasuredHeight();
-        v.layout(selectedBottom, selectedTop, top, bottom);
+        final int left = getWidth() / 2 - v.getMeasuredWidth() / 2;
+        v.layout(left, selectedTop, left + v.getMeasuredWidth(), selectedTop + v.getMeasuredHeight());
 
         mFirstVisibleChild = mSelection;
         mLastVisibleChild = mSelection;
-
-        if (mLastVisibleChild == mAdapter.getCount() - 1) {
-            mTopEdge = top;
-        }
-        if (mFirstVisibleChild == 0) {
-            mBottomEdge = selectedBottom;
-        }
+        updateEdges();
 
         refill();
 
         mReverseOrderIndex = indexOfChild(v);
         v.setSelected(true);
+        updateLayoutIfNeeded();
     }
 
-    protected void refill() {
-        if (mAdapter == null || getChildCount() == 0) return;
-//        final int topScreenEdge = getScrollY();
-//        int bottomScreenEdge = topScreenEdge - getHeight();
-        //todo check this
-        final int bottomScreenEdge = getScrollY();//getScrollY()+getHeight();
-        int topScreenEdge = bottomScreenEdge + getHeight();
+    /**
+     * Items were inserted into adapter. Attached children before insertion point stay where they are, children after
+     * it are moved to make space for new items. Nothing is bound when insertion is out of attached window.
+     */
+    private void insertItems(int positionStart, int itemCount) {
+        if (itemCount <= 0) return;
+        mCache.invalidateBound();
+        if (mCircular) {
+            //every cycle of circular list changes, lay out window again around selected item
+            final int oldCount = mAdapter.getCount() - itemCount;
+            int selection = oldCount > 0 ? floorMod(mSelection, oldCount) : 0;
+            if (oldCount > 0 && selection >= positionStart) selection += itemCount;
+            relayoutCircular(selection);
+            return;
+        }
+        if (getChildCount() == 0) {
+            if (mSelection >= positionStart && mAdapter.getCount() > itemCount) mSelection += itemCount;
+            requestLayout();
+            return;
+        }
 
-        Log.i(TAG, "refillt: " + topScreenEdge);
-        Log.i(TAG, "refillb: " + bottomScreenEdge);
+        final View selectedView = getSelectedView();
 
-//        removeNonVisibleViewsTopToBottom(topScreenEdge);
-//        removeNonVisibleViewsBottomToTop(bottomScreenEdge);
+        if (positionStart <= mFirstVisibleChild) {
+            mFirstVisibleChild += itemCount;
+            mLastVisibleChild += itemCount;
+        } else if (positionStart <= mLastVisibleChild) {
+            insertChildren(positionStart, itemCount);
+        }
+        if (mSelection >= positionStart) {
+            mSelection += itemCount;
+        }
 
-        refillBottomToTop(topScreenEdge);
-        refillTopToBottom(bottomScreenEdge);
+        onChildrenPatched(selectedView);
     }
 
-    protected int getPartOfViewCoveredBySibling() {
-        return (int) (mChildHeight * (1.0f - mSpacing));//todo check
-    }
+    private void insertChildren(int positionStart, int itemCount) {
+        final int index = positionStart - mFirstVisibleChild;
+        final int limit = getScrollY() + getHeight() + getOffscreenMargin();
 
-    protected View getViewFromAdapter(int position) {
-        return mAdapter.getView(position, mCache.getCachedView(), this);
+        int newBottom = getChildAt(index - 1).getBottom() + getItemPitch();
+        int added = 0;
+        while (added < itemCount && newBottom - mChildHeight < limit) {
+            final View child = obtainView(positionStart + added);
+            child.setSelected(false);
+            addAndMeasureChildAt(child, index + added);
+            newBottom = layoutChild(child, newBottom);
+            added++;
+        }
+
+        final int next = index + added;
+        if (added < itemCount) {
+            //inserted items continue out of window and push rest of children out of it too
+            recycleChildren(next, getChildCount() - next);
+        } else {
+            final int shift = itemCount * getItemPitch();
+            for (int i = next; i < getChildCount(); i++) {
+                getChildAt(i).offsetTopAndBottom(shift);
+            }
+        }
+        mLastVisibleChild = mFirstVisibleChild + getChildCount() - 1;
     }
 
     /**
-     * Checks and refills empty area on the left
-     *
-     * @return firstItemPosition
+     * Items were removed from adapter. Attached children before removed range stay where they are, children after
+     * it are moved to close the gap. Nothing is bound when removed range is out of attached window.
      */
-    protected void refillTopToBottom(final int bottomScreenEdge) {
-        if (getChildCount() == 0) return;
+    private void removeItems(int positionStart, int itemCount) {
+        if (itemCount <= 0) return;
+        mCache.invalidateBound();
+        final int positionEnd = positionStart + itemCount - 1;
+
+        if (mCircular) {
+            int selection = floorMod(mSelection, mAdapter.getCount() + itemCount);
+            if (selection > positionEnd) {
+                selection -= itemCount;
+            } else if (selection >= positionStart) {
+                selection = Math.min(positionStart, mAdapter.getCount() - 1);
+            }
+            relayoutCircular(Math.max(selection, 0));
+            return;
+        }
 
-        View child = getChildAt(0);
-        int childTop = child.getTop();
+        if (mSelection > positionEnd) {
+            mSelection -= itemCount;
+        } else if (mSelection >= positionStart) {
+            mSelection = Math.min(positionStart, mAdapter.getCount() - 1);
+        }
+        if (mSelection < 0) {
+            mSelection = 0;
+        }
+
+        if (getChildCount() == 0) {
+            requestLayout();
+            return;
+        }
+
+        final View selectedView = getSelectedView();
+
+        if (positionEnd < mFirstVisibleChild) {
+            mFirstVisibleChild -= itemCount;
+            mLastVisibleChild -= itemCount;
+        } else if (positionStart <= mLastVisibleChild) {
+            final int from = Math.max(positionStart, mFirstVisibleChild) - mFirstVisibleChild;
+            final int to = Math.min(positionEnd, mLastVisibleChild) - mFirstVisibleChild;
+            final int count = to - from + 1;
+
+            if (count == getChildCount()) {
+                //nothing to keep, lay out again around selection
+                recycleAllViews();
+                mReverseOrderIndex = -1;
+                mTopEdge = NO_VALUE;
+                mBottomEdge = NO_VALUE;
+                requestLayout();
+                return;
+            }
+
+            recycleChildren(from, count);
+            if (from > 0) {
+                final int shift = count * getItemPitch();
+                for (int i = from; i < getChildCount(); i++) {
+                    getChildAt(i).offsetTopAndBottom(-shift);
+                }
+            } else {
+                mFirstVisibleChild = positionStart;
+            }
+            mLastVisibleChild = mFirstVisibleChild + getChildCount() - 1;
+        }
+
+        onChildrenPatched(selectedView);
+    }
+
+    /**
+     * Lay out window of circular list again around selection, keeping selected item where it was
+     */
+    private void relayoutCircular(int selection) {
+        mSelection = selection;
+        if (mAdapter.getCount() == 0) {
+            recycleAllViews();
+            mReverseOrderIndex = -1;
+            requestLayout();
+            return;
+        }
+        reset();
+        invalidate();
+    }
+
+    /**
+     * Block of items was moved. Number of items stays the same and only positions between source and destination show
+     * different items now, so attached children in that range are bound again in place. Children keep their positions
+     * and nothing is refilled before all of them show final data. Selected item stays selected and resting list
+     * centers it on its new position.
+     */
+    private void moveItems(int fromPosition, int toPosition, int itemCount) {
+        if (itemCount <= 0 || fromPosition == toPosition) return;
+        final int start = Math.min(fromPosition, toPosition);
+        final int end = Math.max(fromPosition, toPosition) + itemCount;
+        rebindItems(start, end - start);
+
+        final int selection = toAdapterPosition(mSelection);
+        final int moved = getMovedPosition(selection, fromPosition, toPosition, itemCount);
+        if (moved == selection) return;
+        if (mTouchState == TOUCH_STATE_RESTING) {
+            jumpToPosition(mSelection + moved - selection);
+        } else if (mOnItemSelectedListener != null) {
+            //moving list keeps selecting item in center, which shows different item now
+            mOnItemSelectedListener.onItemSelected(getSelectedView(), selection);
+        }
+    }
+
+    /**
+     * @return position of item, which was on given position, after block of items was moved
+     */
+    private static int getMovedPosition(int position, int fromPosition, int toPosition, int itemCount) {
+        if (position >= fromPosition && position < fromPosition + itemCount) {
+            return position + toPosition - fromPosition;
+        } else if (fromPosition < toPosition && position >= fromPosition + itemCount && position < toPosition + itemCount) {
+            return position - itemCount;
+        } else if (toPosition < fromPosition && position >= toPosition && position < fromPosition) {
+            return position + itemCount;
+        }
+        return position;
+    }
+
+    /**
+     * Content of items changed, attached children showing them are bound again in place
+     */
+    private void rebindItems(int positionStart, int itemCount) {
+        //items prepared ahead outside of changed range stay valid
+        mCache.invalidateBound(positionStart, itemCount, mCircular ? mAdapter.getCount() : 0);
+        if (getChildCount() == 0 || itemCount <= 0) return;
+
+        final int positionEnd = positionStart + itemCount - 1;
+        final int c = getChildCount();
+        for (int index = 0; index < c; index++) {
+            //in circular mode more children can show the same item
+            final int position = toAdapterPosition(mFirstVisibleChild + index);
+            if (position < positionStart || position > positionEnd) continue;
+
+            final View child = getChildAt(index);
+            final long start = mMetrics != null ? System.nanoTime() : 0;
+            final View v = rebindView(child, position);
+            if (mMetrics != null) {
+                mMetrics.addBind(System.nanoTime() - start);
+            }
+            rememberItemKey(v, position);
+
+            if (v != child) {
+                recycleChildren(index, 1);
+                addAndMeasureChildAt(v, index);
+                v.layout(child.getLeft(), child.getTop(), child.getRight(), child.getBottom());
+                v.setSelected(index == mReverseOrderIndex);
+            } else if (child.isLayoutRequested()) {
+                measureItemView(child);
+                child.layout(child.getLeft(), child.getTop(), child.getRight(), child.getBottom());
+            }
+        }
+        updateLayoutIfNeeded();
+        invalidate();
+    }
+
+    /**
+     * Bind attached child again to data of given position
+     *
+     * @return view which should be attached instead of child, child itself if it was reused
+     */
+    protected View rebindView(View child, int position) {
+        final int viewType = mAdapter.getItemViewType(position);
+        if (getViewType(child) != viewType) {
+            return getViewFromAdapter(position);
+        }
+
+        final View v = mAdapter.getView(position, child, this);
+        setViewType(v, viewType);
+        return v;
+    }
+
+    /**
+     * Fix selection and edges after children were inserted or removed, then fill space which could open up
+     */
+    private void onChildrenPatched(View oldSelectedView) {
+        if (oldSelectedView != null && oldSelectedView.getParent() == this) {
+            mReverseOrderIndex = indexOfChild(oldSelectedView);
+        } else {
+            if (oldSelectedView != null) {
+                oldSelectedView.setSelected(false);
+            }
+            mReverseOrderIndex = -1;
+        }
+
+        //remaining children could have moved
+        mLayoutDirty = true;
+        updateEdges();
+        //list could get shorter than current scroll position
+        scrollByDelta(0);
+        invalidate();
+    }
+
+    /**
+     * Compute positions of list ends from attached children. Children are laid out at uniform pitch, so both edges are
+     * known from any window, without ends of list being attached. Circular list has no edges.
+     */
+    private void updateEdges() {
+        if (getChildCount() == 0) return;
+        if (mCircular) {
+            mTopEdge = NO_VALUE;
+            mBottomEdge = NO_VALUE;
+            return;
+        }
+
+        final long pitch = getItemPitch();
+        final int lastPosition = mAdapter.getCount() - 1;
+        mBottomEdge = clampEdge(getChildAt(0).getBottom() - mFirstVisibleChild * pitch);
+        mTopEdge = clampEdge(getChildAt(getChildCount() - 1).getTop() + (lastPosition - mLastVisibleChild) * pitch);
+        traceEdges();
+    }
+
+    /**
+     * Keep edge of very long list within range in which scroll offsets computed from it can not overflow
+     */
+    private int clampEdge(long edge) {
+        final int limit = Integer.MAX_VALUE / 2;
+        return (int) Math.max(-limit, Math.min(limit, edge));
+    }
+
+    /**
+     * @return scroll offset in which first item is in center of widget
+     */
+    private int getMinScrollY() {
+        if (mBottomEdge == NO_VALUE) {
+            return Integer.MIN_VALUE + getHeight(); //we cant have min value because of integer overflow
+        }
+        return mBottomEdge - (getHeight() / 2 + mChildHeight / 2);
+    }
+
+    /**
+     * @return scroll offset in which last item is in center of widget
+     */
+    private int getMaxScrollY() {
+        if (mTopEdge == NO_VALUE) {
+            return Integer.MAX_VALUE - getHeight();
+        }
+        return mTopEdge - (getHeight() / 2 - mChildHeight / 2);
+    }
+
+    private void traceEdges() {
+        if (mTrace != null) {
+            mTrace.record(CarouselTrace.EVENT_EDGES, mTopEdge, mBottomEdge);
+        }
+    }
+
+    /**
+     * @return distance between tops of two neighbouring items
+     */
+    protected int getItemPitch() {
+        return (int) (mChildHeight * mSpacing);
+    }
+
+    protected void refill() {
+        if (mAdapter == null || getChildCount() == 0) return;
+//        final int topScreenEdge = getScrollY();
+//        int bottomScreenEdge = topScreenEdge - getHeight();
+        //todo check this
+        final int bottomScreenEdge = getScrollY();//getScrollY()+getHeight();
+        int topScreenEdge = bottomScreenEdge + getHeight();
+
+
+        removeNonVisibleViewsTopToBottom(topScreenEdge);
+        removeNonVisibleViewsBottomToTop(bottomScreenEdge);
+
+        refillBottomToTop(topScreenEdge);
+        refillTopToBottom(bottomScreenEdge);
+    }
+
+    /**
+     * @return distance in pixels beyond edges of widget in which children are kept attached
+     */
+    protected int getOffscreenMargin() {
+        return mOffscreenMargin < 0 ? mChildHeight : mOffscreenMargin;
+    }
+
+    protected View getViewFromAdapter(int position) {
+        final int viewType = mAdapter.getItemViewType(position);
+        final View v = mAdapter.getView(position, mCache.get(viewType), this);
+        setViewType(v, viewType);
+        return v;
+    }
+
+    /**
+     * Take view prepared by prefetch if there is one for this position, otherwise bind one from adapter
+     */
+    private View obtainView(int position) {
+        final View prefetched = mCache.getBound(position);
+        if (prefetched != null) {
+            return prefetched;
+        }
+        return bindView(toAdapterPosition(position));
+    }
+
+    /**
+     * Get view for adapter position from adapter, measuring time of bind when metrics are enabled
+     */
+    private View bindView(int position) {
+        final CarouselMetrics metrics = mMetrics;
+        final CarouselTrace trace = mTrace;
+        if (metrics == null && trace == null) {
+            final View v = getViewFromAdapter(position);
+            rememberItemKey(v, position);
+            return v;
+        }
+
+        if (trace != null) trace.beginSection(CarouselTrace.SECTION_BIND);
+        final long start = System.nanoTime();
+        final View v = getViewFromAdapter(position);
+        if (metrics != null) {
+            metrics.addBind(System.nanoTime() - start);
+        }
+        if (trace != null) trace.endSection();
+        rememberItemKey(v, position);
+        return v;
+    }
+
+    /**
+     * Remember stable id and content version of item view was bound to, so it can be matched to item after data change
+     */
+    private void rememberItemKey(View v, int position) {
+        if (!mAdapter.hasStableIds()) return;
+
+        ItemKey key = (ItemKey) v.getTag(R.id.carousel_item_key);
+        if (key == null) {
+            key = new ItemKey();
+            v.setTag(R.id.carousel_item_key, key);
+        }
+        key.mId = mAdapter.getItemId(position);
+        key.mVersion = getItemVersion(position);
+    }
+
+    private long getItemVersion(int position) {
+        return mAdapter instanceof CarouselAdapter ? ((CarouselAdapter) mAdapter).getItemVersion(position) : NO_VERSION;
+    }
+
+    /**
+     * Data set changed and adapter has stable ids. Attached children are matched by id to new positions of their items
+     * and stay attached, selected item keeps its place in center. Only children of items which are new in window, or
+     * whose content version changed, are bound.
+     *
+     * @return false when window can not be kept, e.g. selected item is gone, and it has to be laid out again
+     */
+    private boolean rebindStableItems() {
+        final int c = getChildCount();
+        final int count = mAdapter.getCount();
+        if (c == 0 || count == 0 || mCircular || mReverseOrderIndex < 0 || mReverseOrderIndex >= c) return false;
+
+        final View oldSelectedView = getChildAt(mReverseOrderIndex);
+        final ItemKey selectedKey = (ItemKey) oldSelectedView.getTag(R.id.carousel_item_key);
+        if (selectedKey == null) return false;
+        final int selection = findItemPosition(selectedKey.mId, mSelection, count);
+        if (selection < 0) return false;
+
+        //children keep index relative to selected one when their items did not move
+        final int indexShift = mFirstVisibleChild - mSelection + selection;
+        final int first = Math.max(selection - mReverseOrderIndex, 0);
+        final int last = Math.min(selection + (c - 1 - mReverseOrderIndex), count - 1);
+        final int selectedBottom = oldSelectedView.getBottom();
+        final int pitch = getItemPitch();
+
+        if (mStableScrap.length < c) {
+            mStableScrap = new View[c];
+        }
+        final View[] scrap = mStableScrap;
+        for (int i = 0; i < c; i++) {
+            scrap[i] = getChildAt(i);
+        }
+        detachAllViewsFromParent();
+
+        View selectedView = null;
+        for (int position = first; position <= last; position++) {
+            final int oldIndex = findScrapIndex(scrap, c, mAdapter.getItemId(position), position - indexShift);
+
+            View v;
+            if (oldIndex >= 0) {
+                final View child = scrap[oldIndex];
+                scrap[oldIndex] = null;
+                final ItemKey key = (ItemKey) child.getTag(R.id.carousel_item_key);
+                final long version = getItemVersion(position);
+                v = child;
+                if (version == NO_VERSION || version != key.mVersion) {
+                    final long start = mMetrics != null ? System.nanoTime() : 0;
+                    v = rebindView(child, position);
+                    if (mMetrics != null) {
+                        mMetrics.addBind(System.nanoTime() - start);
+                    }
+                    rememberItemKey(v, position);
+                }
+                if (v == child) {
+                    attachViewToParent(child, -1, child.getLayoutParams());
+                    if (child.isLayoutRequested()) {
+                        measureItemView(child);
+                    }
+                } else {
+                    removeDetachedView(child, false);
+                    recycleView(child);
+                    addAndMeasureChildAt(v, -1);
+                }
+            } else {
+                v = bindView(position);
+                addAndMeasureChildAt(v, -1);
+            }
+            layoutChild(v, selectedBottom + (position - selection) * pitch);
+            v.setSelected(position == selection);
+            if (position == selection) selectedView = v;
+        }
+
+        for (int i = 0; i < c; i++) {
+            if (scrap[i] != null) {
+                removeDetachedView(scrap[i], false);
+                recycleView(scrap[i]);
+                scrap[i] = null;
+            }
+        }
+
+        final int oldSelection = mSelection;
+        mSelection = selection;
+        mFirstVisibleChild = first;
+        mLastVisibleChild = last;
+        //count could have changed, edges are found again from new window
+        mTopEdge = NO_VALUE;
+        mBottomEdge = NO_VALUE;
+        refill();
+        onChildrenPatched(selectedView);
+        updateLayoutIfNeeded();
+
+        if (oldSelection != selection && mOnItemSelectedListener != null) {
+            mOnItemSelectedListener.onItemSelected(selectedView, selection);
+        }
+        return true;
+    }
+
+    /**
+     * @return position of item with given id nearest to expected position, -1 when it is not within search distance
+     */
+    private int findItemPosition(long id, int expected, int count) {
+        for (int distance = 0; distance <= STABLE_ID_SEARCH_DISTANCE; distance++) {
+            final int after = expected + distance;
+            final int before = expected - distance;
+            if (after >= count && before < 0) break;
+            if (after < count && mAdapter.getItemId(after) == id) return after;
+            if (distance > 0 && before >= 0 && before < count && mAdapter.getItemId(before) == id) return before;
+        }
+        return -1;
+    }
+
+    /**
+     * @return index of detached child bound to item with given id, -1 when there is none
+     */
+    private static int findScrapIndex(View[] scrap, int count, long id, int expectedIndex) {
+        if (expectedIndex >= 0 && expectedIndex < count && matchesId(scrap[expectedIndex], id)) return expectedIndex;
+        for (int i = 0; i < count; i++) {
+            if (matchesId(scrap[i], id)) return i;
+        }
+        return -1;
+    }
+
+    private static boolean matchesId(View v, long id) {
+        if (v == null) return false;
+        final ItemKey key = (ItemKey) v.getTag(R.id.carousel_item_key);
+        return key != null && key.mId == id;
+    }
+
+    /**
+     * Bind and measure view for position which is not attached yet and keep it in cache until it scrolls into view
+     */
+    private void prefetchView(int position) {
+        final View v = bindView(toAdapterPosition(position));
+        v.setSelected(false);
+        //new view is not attached yet, it gets the same shared params it will get when added
+        if (v.getLayoutParams() == null) {
+            v.setLayoutParams(mChildLayoutParams);
+        }
+        measureItemView(v);
+        mCache.putBound(position, getViewType(v), v);
+    }
+
+    /**
+     * @return number of items which should be prepared ahead, depending on current scroll speed
+     */
+    private int getPrefetchCount() {
+        final int pitch = Math.max(getItemPitch(), 1);
+        final int count = (int) (Math.abs(mScrollVelocity) * PREFETCH_LOOKAHEAD_MS / 1000 / pitch) + 1;
+        return Math.min(count, mPrefetchMaxCount);
+    }
+
+    /**
+     * Remember view type of adapter item view is bound to, so view can be returned to right pool once it is removed
+     */
+    protected static void setViewType(View v, int viewType) {
+        v.setTag(R.id.carousel_view_type, viewType);
+    }
+
+    protected static int getViewType(View v) {
+        final Object viewType = v.getTag(R.id.carousel_view_type);
+        return viewType == null ? Adapter.IGNORE_ITEM_VIEW_TYPE : (Integer) viewType;
+    }
+
+    /**
+     * Hand removed child back to cache
+     */
+    protected void recycleView(View v) {
+        mCache.put(getViewType(v), v);
+        if (mRecyclerListener != null) {
+            mRecyclerListener.onMovedToScrapHeap(getItemView(v));
+        }
+    }
+
+    /**
+     * @return view returned by adapter for given child, subclasses which wrap item views into frames return wrapped view
+     */
+    protected View getItemView(View child) {
+        return child;
+    }
+
+    private void recycleAllViews() {
+        final int c = getChildCount();
+        for (int i = 0; i < c; i++) {
+            recycleView(getChildAt(i));
+        }
+        removeAllViewsInLayout();
+    }
+
+    private void recycleChildren(int start, int count) {
+        for (int i = start; i < start + count; i++) {
+            recycleView(getChildAt(i));
+        }
+        removeViewsInLayout(start, count);
+    }
+
+    /**
+     * Checks and refills empty area on the left
+     *
+     * @return firstItemPosition
+     */
+    protected void refillTopToBottom(final int bottomScreenEdge) {
+        if (getChildCount() == 0) return;
+
+        final int limit = bottomScreenEdge - getOffscreenMargin();
+        View child = getChildAt(0);
+        int childTop = child.getTop();
         int newTop = childTop - (int) (mChildHeight * mSpacing);
 
-        while (newTop - getPartOfViewCoveredBySibling() > bottomScreenEdge && mFirstVisibleChild > 0) {
+        while (newTop + mChildHeight > limit && hasItem(mFirstVisibleChild - 1)) {
             mFirstVisibleChild--;
-            // Log.i(TAG, "refillTopToBottom: "+mFirstVisibleChild);
-            child = getViewFromAdapter(mFirstVisibleChild);
+            child = obtainView(mFirstVisibleChild);
             child.setSelected(false);
-            mReverseOrderIndex++;
+            if (mReverseOrderIndex >= 0) {
+                mReverseOrderIndex++;
+            }
 
             addAndMeasureChild(child, LAYOUT_MODE_TO_BEFORE);
             newTop = layoutChildToBefore(child, newTop);
-
-            if (mFirstVisibleChild <= 0) {
-                mBottomEdge = child.getBottom();
-            }
         }
         return;
     }
@@ -424,99 +1410,124 @@ public class Carousel extends ViewGroup {
      * Checks and refills empty area on the top
      */
     protected void refillBottomToTop(final int topScreenEdge) {
+        if (getChildCount() == 0) return;
 
+        final int limit = topScreenEdge + getOffscreenMargin();
         View child;
         int newBottom;
 
-        int index = 0;
-//        Log.i(TAG, "index: "+index);
-        child = getChildAt(index);
+        child = getChildAt(getChildCount() - 1);
         int childBottom = child.getBottom();
 
         newBottom = childBottom + (int) (mChildHeight * mSpacing);
-        Log.i(TAG, "refillLeftToRight: " + newBottom + " / " + " /r " + topScreenEdge + " / " + (mLastVisibleChild < mAdapter
-                .getCount() - 1));
-        while (newBottom + getPartOfViewCoveredBySibling() < topScreenEdge && mLastVisibleChild < mAdapter
-                .getCount() - 1) {
+        while (newBottom - mChildHeight < limit && hasItem(mLastVisibleChild + 1)) {
             mLastVisibleChild++;
-//            Log.i(TAG, "refillBottomToTop: "+mLastVisibleChild);
-            child = getViewFromAdapter(mLastVisibleChild);
+            child = obtainView(mLastVisibleChild);
             child.setSelected(false);
 
             addAndMeasureChild(child, LAYOUT_MODE_AFTER);
             newBottom = layoutChild(child, newBottom);
-
-            if (mLastVisibleChild >= mAdapter.getCount() - 1) {
-                mTopEdge = child.getTop();
-            }
         }
     }
 
 
     /**
-     * Remove non visible views from left edge of screen
+     * Remove views which left the screen (plus offscreen margin) over its top edge
      */
     protected void removeNonVisibleViewsBottomToTop(final int bottomScreenEdge) {
         if (getChildCount() == 0) return;
-        //todo check
 
-        // check if we should remove any views in the left
+        final int limit = bottomScreenEdge - getOffscreenMargin();
         View firstChild = getChildAt(0);
 
-        while (firstChild != null && firstChild.getBottom() + (mChildHeight * mSpacing) < bottomScreenEdge && getChildCount() > 1) {
-
-            // remove view
+        // always keep at least one child, refill uses it as anchor
+        while (firstChild.getBottom() <= limit && getChildCount() > 1) {
             removeViewsInLayout(0, 1);
 
-            mCache.cacheView(firstChild);
-
-            mFirstVisibleChild++;
-            mReverseOrderIndex--;
-
             if (mReverseOrderIndex == 0) {
-                break;
+                firstChild.setSelected(false);
+                mReverseOrderIndex = -1;
+            } else if (mReverseOrderIndex > 0) {
+                mReverseOrderIndex--;
             }
+            recycleView(firstChild);
+            mFirstVisibleChild++;
 
-            // Continue to check the next child only if we have more than
-            // one child left
-            if (getChildCount() > 1) {
-                firstChild = getChildAt(0);
-            } else {
-                firstChild = null;
-            }
+            firstChild = getChildAt(0);
         }
-
     }
 
     /**
-     * Remove non visible views from right edge of screen
+     * Remove views which left the screen (plus offscreen margin) over its bottom edge
      */
     protected void removeNonVisibleViewsTopToBottom(final int topScreenEdge) {
         if (getChildCount() == 0) return;
-        //todo check
-        // check if we should remove any views in the right
+
+        final int limit = topScreenEdge + getOffscreenMargin();
         View lastChild = getChildAt(getChildCount() - 1);
-        while (lastChild != null && lastChild.getTop() - (mChildHeight * mSpacing) > topScreenEdge &&
-                getChildCount() > 1) {
-            // remove the right view
-            removeViewsInLayout(getChildCount() - 1, 1);
 
-            mCache.cacheView(lastChild);
+        // always keep at least one child, refill uses it as anchor
+        while (lastChild.getTop() >= limit && getChildCount() > 1) {
+            final int index = getChildCount() - 1;
+            removeViewsInLayout(index, 1);
 
-            mLastVisibleChild--;
-            if (getChildCount() - 1 == mReverseOrderIndex) {
-                break;
+            if (mReverseOrderIndex == index) {
+                lastChild.setSelected(false);
+                mReverseOrderIndex = -1;
             }
+            recycleView(lastChild);
+            mLastVisibleChild--;
 
-            // Continue to check the next child only if we have more than
-            // one child left
-            if (getChildCount() > 1) {
-                lastChild = getChildAt(getChildCount() - 1);
-            } else {
-                lastChild = null;
-            }
+            lastChild = getChildAt(getChildCount() - 1);
         }
+    }
+
+    /**
+     * Anchor position model to first attached child. Children are laid out at uniform pitch, so one child is enough.
+     *
+     * @return false when there are no children and model can not be used
+     */
+    private boolean updatePositionModel() {
+        if (mAdapter == null || getChildCount() == 0) return false;
+        mPositions.set(mFirstVisibleChild, getChildCenter(0), getItemPitch(), mChildHeight, mAdapter.getCount(), mCircular);
+        return true;
+    }
+
+    /**
+     * @return virtual position of first attached child
+     */
+    int getFirstAttachedPosition() {
+        return mFirstVisibleChild;
+    }
+
+    /**
+     * @return virtual position of last attached child
+     */
+    int getLastAttachedPosition() {
+        return mLastVisibleChild;
+    }
 
+    /**
+     * @return virtual position of selected item
+     */
+    int getSelectedPosition() {
+        return mSelection;
+    }
+
+    /**
+     * @return adapter position of first item visible on screen, or -1 when nothing is laid out
+     */
+    public int getFirstVisiblePosition() {
+        if (!updatePositionModel()) return -1;
+        return toAdapterPosition(mPositions.getFirstPositionIn(getScrollY()));
+    }
+
+    /**
+     * @return adapter position of last item visible on screen, or -1 when nothing is laid out
+     */
+    public int getLastVisiblePosition() {
+        if (!updatePositionModel()) return -1;
+        return toAdapterPosition(mPositions.getLastPositionIn(getScrollY() + getHeight()));
     }
 
     protected int getChildCenter(View v) {
@@ -528,10 +1539,111 @@ public class Carousel extends ViewGroup {
         return getChildCenter(getChildAt(i));
     }
 
-//    @Override
-//    protected void dispatchDraw(Canvas canvas) {
-//        super.dispatchDraw(canvas);
-//    }
+    @Override
+    protected void dispatchDraw(Canvas canvas) {
+        final CarouselMetrics metrics = mMetrics;
+        if (metrics == null) {
+            super.dispatchDraw(canvas);
+        } else {
+            final long start = System.nanoTime();
+            super.dispatchDraw(canvas);
+            final long end = System.nanoTime();
+            metrics.addDraw(end - start);
+
+            final CarouselMetrics.Frame frame = metrics.endFrame(mCache, getChildCount(), isMoving(), end, mFrameIntervalNanos);
+            if (mFrameMetricsListener != null) {
+                mFrameMetricsListener.onFrameMetrics(frame);
+            }
+            metrics.startFrame();
+        }
+
+        //rest of the frame can be used to prepare items which will scroll in soon
+        if (isMoving()) {
+            mPrefetcher.schedule();
+        }
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+
+        final WindowManager windowManager = (WindowManager) getContext().getSystemService(Context.WINDOW_SERVICE);
+        float refreshRate = 60f;
+        if (windowManager != null) {
+            final float displayRate = windowManager.getDefaultDisplay().getRefreshRate();
+            if (displayRate >= 30f) {
+                refreshRate = displayRate;
+            }
+        }
+        mFrameIntervalNanos = (long) (1000000000 / refreshRate);
+
+        //fling interrupted by detaching continues
+        if (!mScroller.isFinished()) {
+            mScrollAnimator.start();
+        }
+    }
+
+    @Override
+    protected Parcelable onSaveInstanceState() {
+        final SavedState state = new SavedState(super.onSaveInstanceState());
+        state.mTouchState = mTouchState;
+        if (mPendingState != null) {
+            //not laid out since restore, keep what was restored
+            state.mPosition = mPendingState.mPosition;
+            state.mOffset = mPendingState.mOffset;
+            state.mHasId = mPendingState.mHasId;
+            state.mId = mPendingState.mId;
+            state.mTouchState = mPendingState.mTouchState;
+            return state;
+        }
+
+        int position = mSelection;
+        if (mFlingTargetPosition != NO_VALUE) {
+            //list comes to rest there anyway
+            position = mFlingTargetPosition;
+        } else if (updatePositionModel()) {
+            state.mOffset = getScrollY() - getScrollYForPosition(position);
+        }
+        if (mAdapter != null && mAdapter.getCount() > 0) {
+            state.mPosition = toAdapterPosition(position);
+            if (mAdapter.hasStableIds() && state.mPosition < mAdapter.getCount()) {
+                state.mHasId = true;
+                state.mId = mAdapter.getItemId(state.mPosition);
+            }
+        }
+        return state;
+    }
+
+    @Override
+    protected void onRestoreInstanceState(Parcelable state) {
+        if (!(state instanceof SavedState)) {
+            super.onRestoreInstanceState(state);
+            return;
+        }
+        final SavedState ss = (SavedState) state;
+        super.onRestoreInstanceState(ss.getSuperState());
+
+        mPendingState = ss;
+        mSelection = ss.mPosition;
+        if (!mScroller.isFinished()) {
+            mScroller.forceFinished(true);
+            mScrollAnimator.stop();
+        }
+        setTouchState(TOUCH_STATE_RESTING);
+        //window is built once by next layout, at restored position
+        if (getChildCount() > 0) {
+            recycleAllViews();
+            mReverseOrderIndex = -1;
+        }
+        requestLayout();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        mPrefetcher.cancel();
+        mScrollAnimator.stop();
+    }
 
     @Override
     protected int getChildDrawingOrder(int childCount, int i) {
@@ -542,6 +1654,14 @@ public class Carousel extends ViewGroup {
         }
     }
 
+    @Override
+    public boolean dispatchTouchEvent(MotionEvent ev) {
+        if (mGestureRecorder != null) {
+            mGestureRecorder.record(ev);
+        }
+        return super.dispatchTouchEvent(ev);
+    }
+
     @Override
     public boolean onInterceptTouchEvent(MotionEvent ev) {
 
@@ -550,19 +1670,23 @@ public class Carousel extends ViewGroup {
          * If we return true, onTouchEvent will be called and we do the actual
          * scrolling there.
          */
-
+        final int action = ev.getAction();
+        if (action == MotionEvent.ACTION_DOWN) {
+            //new gesture, drop samples of previous one
+            recycleVelocityTracker();
+        }
+        //events consumed here never reach onTouchEvent, velocity has to include them
+        trackMovement(ev);
 
         /*
          * Shortcut the most recurring case: the user is in the dragging
          * state and he is moving his finger.  We want to intercept this
          * motion.
          */
-        final int action = ev.getAction();
         if ((action == MotionEvent.ACTION_MOVE) && (mTouchState == TOUCH_STATE_SCROLLING)) {
             return true;
         }
 
-        final float x = ev.getX();
         final float y = ev.getY();
         switch (action) {
             case MotionEvent.ACTION_MOVE:
@@ -570,41 +1694,27 @@ public class Carousel extends ViewGroup {
                  * not dragging, otherwise the shortcut would have caught it. Check
                  * whether the user has moved far enough from his original down touch.
                  */
-
-                /*
-                 * Locally do absolute value. mLastMotionX is set to the x value
-                 * of the down event.
-                 */
-                //diff!
-                final int yDiff = (int) Math.abs(y - mLastMotionY);
-
-                final int touchSlop = mTouchSlop;
-                final boolean yMoved = yDiff > touchSlop;
-
-                if (yMoved) {
-                    // Scroll if the user moved far enough along the axis
-                    mTouchState = TOUCH_STATE_SCROLLING;
-                    enableChildrenCache();
-                    cancelLongPress();
-                }
-
+                startDragIfPastSlop(y);
                 break;
 
             case MotionEvent.ACTION_DOWN:
                 // Remember location of down touch
                 mLastMotionY = y;
+                mPendingDragDelta = 0;
+                requestUnbufferedDispatchIfEnabled(ev);
 
                 /*
                  * If being flinged and user touches the screen, initiate drag;
                  * otherwise don't.  mScroller.isFinished should be false when
                  * being flinged.
                  */
-                mTouchState = mScroller.isFinished() ? TOUCH_STATE_RESTING : TOUCH_STATE_SCROLLING;
+                setTouchState(mScroller.isFinished() ? TOUCH_STATE_RESTING : TOUCH_STATE_SCROLLING);
                 break;
 
             case MotionEvent.ACTION_UP:
-                mTouchState = TOUCH_STATE_RESTING;
-                clearChildrenCache();
+            case MotionEvent.ACTION_CANCEL:
+                setTouchState(TOUCH_STATE_RESTING);
+                recycleVelocityTracker();
                 break;
         }
 
@@ -612,52 +1722,14 @@ public class Carousel extends ViewGroup {
 
     }
 
-    protected void scrollByDelta(int deltaY) {
-        deltaY /= mSlowDownCoefficient;
-
-        final int centerItemBottom = getHeight() / 2 - mChildHeight / 2;
-        final int centerItemTop = getHeight() / 2 + mChildHeight / 2;
-
-        final int topInPixels;
-        final int bottomInPixels;
-        if (mTopEdge == NO_VALUE) {
-            topInPixels = Integer.MAX_VALUE;
-        } else {
-            topInPixels = mTopEdge;
-        }
-
-        if (mBottomEdge == NO_VALUE) {
-            bottomInPixels = Integer.MIN_VALUE + getHeight(); //we cant have min value because of integer overflow
-        } else {
-            bottomInPixels = mBottomEdge;
-        }
-
-        final int y = getScrollY() + deltaY;
-
-        int yBottomDiff = bottomInPixels - centerItemBottom;
-        int yTopDiff = topInPixels - centerItemTop;
-
-        if (y < yBottomDiff) {
-            deltaY -= y - yBottomDiff;
-        } else if (y > yTopDiff) {
-            deltaY -= y - yTopDiff;
-        }
-        Log.i(TAG, "scrollByDelta: " + deltaY);
-        scrollBy(0, deltaY);
-
-    }
-
     @Override
     public boolean onTouchEvent(MotionEvent event) {
-        if (mVelocityTracker == null) {
-            mVelocityTracker = VelocityTracker.obtain();
-        }
-        mVelocityTracker.addMovement(event);
-
         final int action = event.getAction();
-        final float x = event.getX();
         final float y = event.getY();
 
+        //onInterceptTouchEvent sees every down and already tracked it
+        if (action != MotionEvent.ACTION_DOWN) trackMovement(event);
+
         switch (action) {
             case MotionEvent.ACTION_DOWN:
             /*
@@ -666,38 +1738,31 @@ public class Carousel extends ViewGroup {
              */
                 if (!mScroller.isFinished()) {
                     mScroller.forceFinished(true);
+                    mScrollAnimator.stop();
                 }
 
                 // Remember where the motion event started
                 mLastMotionY = y;
+                mPendingDragDelta = 0;
+                requestUnbufferedDispatchIfEnabled(event);
 
                 break;
             case MotionEvent.ACTION_MOVE:
 
                 if (mTouchState == TOUCH_STATE_SCROLLING) {
-                    // Scroll to follow the motion event
-                    final int deltaY = (int) (mLastMotionY - y);
+                    // Follow the motion event, all moves until next frame are applied at once
+                    mPendingDragDelta += mLastMotionY - y;
                     mLastMotionY = y;
-
-                    scrollByDelta(deltaY);
+                    mScrollAnimator.start();
                 } else {
-                    final int yDiff = (int) Math.abs(y - mLastMotionY);
-
-                    final int touchSlop = mTouchSlop;
-                    final boolean yMoved = yDiff > touchSlop;
-
-
-                    if (yMoved) {
-                        // Scroll if the user moved far enough along the axis
-                        mTouchState = TOUCH_STATE_SCROLLING;
-                        enableChildrenCache();
-                        cancelLongPress();
-                    }
+                    startDragIfPastSlop(y);
                 }
                 break;
             case MotionEvent.ACTION_UP:
                 //if we had normal down click and we haven't moved enough to initiate drag, take action as a click on down coordinates
                 if (mTouchState == TOUCH_STATE_SCROLLING) {
+                    //finger was lifted before next frame, last moves must not be lost
+                    applyPendingDrag();
 
                     mVelocityTracker.computeCurrentVelocity(1000, mMaximumVelocity);
                     int initialXVelocity = (int) mVelocityTracker.getXVelocity();
@@ -707,59 +1772,200 @@ public class Carousel extends ViewGroup {
                         fling(-initialXVelocity, -initialYVelocity);
                     } else {
                         // Release the drag
-                        clearChildrenCache();
-                        mTouchState = TOUCH_STATE_RESTING;
-                    }
-
-                    if (mVelocityTracker != null) {
-                        mVelocityTracker.recycle();
-                        mVelocityTracker = null;
+                        alignToNearestItem();
                     }
 
+                    recycleVelocityTracker();
                     break;
                 }
 
-                // Release the drag
-                clearChildrenCache();
-                mTouchState = TOUCH_STATE_RESTING;
+                // Release the drag, list could have been stopped mid fling
+                alignToNearestItem();
+                recycleVelocityTracker();
 
                 break;
             case MotionEvent.ACTION_CANCEL:
-                mTouchState = TOUCH_STATE_RESTING;
+                mPendingDragDelta = 0;
+                alignToNearestItem();
+                recycleVelocityTracker();
         }
 
         return true;
     }
 
+    /**
+     * Start dragging once finger moved from down position further than touch slop
+     */
+    private void startDragIfPastSlop(float y) {
+        final int yDiff = (int) Math.abs(y - mLastMotionY);
+        if (yDiff > mTouchSlop) {
+            // Scroll if the user moved far enough along the axis
+            setTouchState(TOUCH_STATE_SCROLLING);
+            cancelLongPress();
+        }
+    }
+
+    /**
+     * Add event to velocity tracker. Tracker reads batched historical samples of event too.
+     */
+    private void trackMovement(MotionEvent ev) {
+        if (mVelocityTracker == null) {
+            mVelocityTracker = VelocityTracker.obtain();
+        }
+        mVelocityTracker.addMovement(ev);
+    }
+
+    private void recycleVelocityTracker() {
+        if (mVelocityTracker != null) {
+            mVelocityTracker.recycle();
+            mVelocityTracker = null;
+        }
+    }
+
+    /**
+     * Scroll by moves of finger collected since last frame, whole pixels only, rest is kept for next frame
+     */
+    private void applyPendingDrag() {
+        final int deltaY = (int) mPendingDragDelta;
+        if (deltaY == 0) return;
+        mPendingDragDelta -= deltaY;
+
+        if (mVelocityTracker != null) {
+            mVelocityTracker.computeCurrentVelocity(1000, mMaximumVelocity);
+            mScrollVelocity = -mVelocityTracker.getYVelocity();
+        }
+        scrollByDelta(deltaY);
+    }
+
+    private void requestUnbufferedDispatchIfEnabled(MotionEvent ev) {
+        if (mUnbufferedDispatch && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            requestUnbufferedDispatch(ev);
+        }
+    }
+
+    /**
+     * Deliver touch events of gestures started on this widget as soon as they arrive, instead of once per frame.
+     * Moves are still applied once per frame, but with latest position of finger, which lowers latency on displays
+     * with high refresh rate. Has effect since Android 5.0.
+     */
+    public void setUnbufferedTouchDispatch(boolean unbuffered) {
+        mUnbufferedDispatch = unbuffered;
+    }
+
+    protected void scrollByDelta(int deltaY) {
+        deltaY /= mSlowDownCoefficient;
+
+        final int y = getScrollY() + deltaY;
+        final int minScrollY = getMinScrollY();
+        final int maxScrollY = getMaxScrollY();
+
+        if (y < minScrollY) {
+            deltaY -= y - minScrollY;
+        } else if (y > maxScrollY) {
+            deltaY -= y - maxScrollY;
+        }
+        scrollBy(0, deltaY);
+        if (mTrace != null) {
+            mTrace.record(CarouselTrace.EVENT_SCROLL, deltaY, getScrollY());
+        }
+        updateLayoutIfNeeded();
+
+    }
+
     public void fling(int velocityX, int velocityY) {
-        velocityX /= mSlowDownCoefficient;
+        velocityY /= mSlowDownCoefficient;
 
-        mTouchState = TOUCH_STATE_FLING;
+        setTouchState(TOUCH_STATE_FLING);
         final int x = getScrollX();
         final int y = getScrollY();
 
-        final int centerItemBottom = getHeight() / 2 - mChildHeight / 2;
-        final int centerItemTop = getHeight() / 2 + mChildHeight / 2;
-        final int topInPixels;
-        final int bottomInPixels;
-        if (mTopEdge == NO_VALUE) topInPixels = Integer.MAX_VALUE;
-        else topInPixels = mTopEdge;
-        if (mBottomEdge == NO_VALUE) bottomInPixels = Integer.MIN_VALUE + getHeight();
-        else bottomInPixels = mBottomEdge;
+        mScroller.fling(x, y, velocityX, velocityY, 0, 0, getMinScrollY(), getMaxScrollY());
+
+        //land on item nearest to where fling would end, fling then only stretches or shrinks slightly
+        if (updatePositionModel()) {
+            mFlingTargetPosition = mPositions.getPositionAt(mScroller.getFinalY() + getHeight() / 2);
+            mScroller.setFinalY(getScrollYForPosition(mFlingTargetPosition));
+        }
+        if (mTrace != null) {
+            mTrace.record(CarouselTrace.EVENT_FLING, mFlingTargetPosition, mScroller.getFinalY());
+        }
+
+        mScrollAnimator.start();
+    }
+
+    protected void setTouchState(int touchState) {
+        if (mTouchState == touchState) return;
+        if (mTrace != null) {
+            mTrace.record(CarouselTrace.EVENT_TOUCH_STATE, mTouchState, touchState);
+        }
 
-        mScroller.fling(x, y, velocityX, velocityY, 0, 0, bottomInPixels - centerItemBottom,
-                topInPixels - centerItemTop + 1);//todo check
+        if (touchState != TOUCH_STATE_FLING) {
+            mFlingTargetPosition = NO_VALUE;
+        }
 
-        invalidate();
+        final boolean wasMoving = isMoving();
+        mTouchState = touchState;
+        if (wasMoving != isMoving()) {
+            final int c = getChildCount();
+            for (int i = 0; i < c; i++) {
+                applyLayerPolicy(getChildAt(i));
+            }
+        }
+    }
+
+    /**
+     * Circular list can be scrolled in one direction forever. Once it rests far from origin, move scroll offset and
+     * children back to zero and virtual positions back by whole cycles of adapter, so neither pixels nor positions
+     * can overflow. Nothing visible changes and no item is bound again.
+     */
+    private void rebaseCircularPositions() {
+        if (!mCircular || mAdapter == null || getChildCount() == 0) return;
+
+        final int pitch = Math.max(getItemPitch(), 1);
+        final int scrollY = getScrollY();
+        if (Math.abs(scrollY) < CIRCULAR_REBASE_THRESHOLD && Math.abs(mSelection) < CIRCULAR_REBASE_THRESHOLD / pitch) {
+            return;
+        }
+
+        final int shift = mSelection - toAdapterPosition(mSelection);
+        mSelection -= shift;
+        mFirstVisibleChild -= shift;
+        mLastVisibleChild -= shift;
+        //bound views are keyed by virtual positions
+        mCache.invalidateBound();
+
+        final int c = getChildCount();
+        for (int i = 0; i < c; i++) {
+            getChildAt(i).offsetTopAndBottom(-scrollY);
+        }
+        scrollTo(getScrollX(), 0);
+        //children moved together with scroll offset, there is nothing to update
+        mLayoutScrollY = 0;
     }
 
-    private void enableChildrenCache() {
-        setChildrenDrawnWithCacheEnabled(true);
-        setChildrenDrawingCacheEnabled(true);
+    /**
+     * @return true when list is dragged, flung or aligned
+     */
+    protected boolean isMoving() {
+        return mTouchState == TOUCH_STATE_SCROLLING || mTouchState == TOUCH_STATE_FLING || mTouchState == TOUCH_STATE_ALIGN;
     }
 
-    private void clearChildrenCache() {
-        setChildrenDrawnWithCacheEnabled(false);
+    /**
+     * Set layer type of child according to layer policy and current touch state
+     */
+    private void applyLayerPolicy(View child) {
+        final int layerType;
+        if (mLayerPolicy == LAYER_POLICY_SOFTWARE) {
+            layerType = LAYER_TYPE_SOFTWARE;
+        } else if (mLayerPolicy == LAYER_POLICY_HARDWARE_WHILE_MOVING && isMoving() && isHardwareAccelerated()) {
+            layerType = LAYER_TYPE_HARDWARE;
+        } else {
+            layerType = LAYER_TYPE_NONE;
+        }
+
+        if (child.getLayerType() != layerType) {
+            child.setLayerType(layerType, null);
+        }
     }
 
     /**
@@ -773,10 +1979,158 @@ public class Carousel extends ViewGroup {
 
     public void setChildWidth(int width) {
         mChildWidth = width;
+        mChildLayoutParams.width = width;
+    }
+
+    public int getChildWidth() {
+        return mChildWidth;
     }
 
     public void setChildHeight(int height) {
         mChildHeight = height;
+        mChildLayoutParams.height = height;
+    }
+
+    public int getChildHeight() {
+        return mChildHeight;
+    }
+
+    /**
+     * Set distance beyond edges of widget in which children stay attached. Views further away are removed and returned
+     * to cache, so number of children depends only on widget size, not on how far the list was scrolled.
+     *
+     * @param margin margin in pixels, negative value means one child height
+     */
+    public void setOffscreenMargin(int margin) {
+        mOffscreenMargin = margin;
+        requestLayout();
+    }
+
+    /**
+     * @return pool of views removed from widget, which can be cleared or trimmed when memory is low
+     */
+    public RecyclerPool<View> getRecyclerPool() {
+        return mCache;
+    }
+
+    /**
+     * Set maximal number of items which are bound and measured ahead of scroll direction, in time left in frame after
+     * it is drawn. Actual number depends on scroll speed.
+     *
+     * @param count maximal number of prefetched items, 0 disables prefetch
+     */
+    public void setPrefetchItemCount(int count) {
+        if (count < 0) throw new IllegalArgumentException("Prefetch count must not be negative");
+        mPrefetchMaxCount = count;
+        if (mCache.getMaxBound() < count) {
+            mCache.setMaxBound(count);
+        }
+        if (count == 0) {
+            mPrefetcher.cancel();
+        }
+    }
+
+    /**
+     * Create item views of given type during idle time of UI thread, one view per idle pass, and put them into recycler
+     * so that first layout only binds data. Creates as many views as fit into window, pool capacity is raised to hold
+     * them. Call after {@link #setAdapter}, views created for previous adapter are dropped.
+     */
+    public void warmUp(final ViewFactory factory, final int viewType) {
+        final Adapter adapter = mAdapter;
+        final int count = prepareWarmUp(viewType);
+        if (count <= 0) return;
+
+        Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+            private int mRemaining = count;
+
+            @Override
+            public boolean queueIdle() {
+                final View v = factory.createView(Carousel.this, viewType);
+                return addWarmedUpView(adapter, viewType, v) && --mRemaining > 0;
+            }
+        });
+    }
+
+    /**
+     * Create item views of given type on executor and put them into recycler on UI thread, see
+     * {@link #warmUp(ViewFactory, int)}. Factory is then called on background thread, views it creates must be safe to
+     * build off main thread. Views are wrapped by {@link #wrapItemView} on UI thread.
+     */
+    public void warmUp(final ViewFactory factory, final int viewType, Executor executor) {
+        final Adapter adapter = mAdapter;
+        final int count = prepareWarmUp(viewType);
+        if (count <= 0) return;
+
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final View[] views = new View[count];
+                for (int i = 0; i < count; i++) {
+                    views[i] = factory.createView(Carousel.this, viewType);
+                }
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < count; i++) {
+                            if (!addWarmedUpView(adapter, viewType, views[i])) break;
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * @return number of views which should be created by warm up
+     */
+    private int prepareWarmUp(int viewType) {
+        if (mAdapter == null) throw new IllegalStateException("Adapter has to be set before warm up");
+        if (viewType < 0 || viewType >= mCache.getViewTypeCount())
+            throw new IllegalArgumentException("Unknown view type " + viewType);
+
+        //before first layout size of widget is not known yet, screen is upper bound of it
+        final int height = getHeight() > 0 ? getHeight() : getResources().getDisplayMetrics().heightPixels;
+        final int expected = (height + 2 * getOffscreenMargin()) / Math.max(getItemPitch(), 1) + 2;
+        if (mCache.getMaxPerType() < expected) {
+            mCache.setMaxPerType(expected);
+        }
+        return expected - getChildCount() - mCache.size(viewType);
+    }
+
+    /**
+     * @return false when view was not taken, because adapter changed or pool is full
+     */
+    private boolean addWarmedUpView(Adapter adapter, int viewType, View itemView) {
+        if (mAdapter != adapter) return false;
+        final View v = wrapItemView(itemView);
+        setViewType(v, viewType);
+        return mCache.put(viewType, v);
+    }
+
+    /**
+     * Wrap newly created item view the same way as views from adapter are wrapped before they are attached, for
+     * views created by warm up. Called on UI thread.
+     */
+    protected View wrapItemView(View itemView) {
+        return itemView;
+    }
+
+    /**
+     * Set how children use layers
+     *
+     * @param layerPolicy one of {@link #LAYER_POLICY_NONE}, {@link #LAYER_POLICY_HARDWARE_WHILE_MOVING},
+     *                    {@link #LAYER_POLICY_SOFTWARE}
+     */
+    public void setLayerPolicy(int layerPolicy) {
+        if (layerPolicy < LAYER_POLICY_NONE || layerPolicy > LAYER_POLICY_SOFTWARE)
+            throw new IllegalArgumentException("Unknown layer policy " + layerPolicy);
+        mLayerPolicy = layerPolicy;
+
+        final int c = getChildCount();
+        for (int i = 0; i < c; i++) {
+            applyLayerPolicy(getChildAt(i));
+        }
     }
 
     public void setSlowDownCoefficient(int c) {
@@ -788,33 +2142,255 @@ public class Carousel extends ViewGroup {
         mOnItemSelectedListener = onItemSelectedListener;
     }
 
+    /**
+     * Set listener notified when item view leaves the widget and is returned to cache, e.g. to cancel its image loads
+     */
+    public void setRecyclerListener(RecyclerListener recyclerListener) {
+        mRecyclerListener = recyclerListener;
+    }
+
+    /**
+     * Collect timings of binds, layout, transformations and drawing of every frame and aggregate them into histogram.
+     * Disabled metrics cost nothing.
+     */
+    public void setMetricsEnabled(boolean enabled) {
+        if (enabled && mMetrics == null) {
+            mMetrics = new CarouselMetrics(mCache);
+        } else if (!enabled) {
+            mMetrics = null;
+        }
+    }
+
+    /**
+     * @return collected metrics, null when they are disabled
+     */
+    public CarouselMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Receive metrics of every drawn frame. Setting listener enables metrics.
+     */
+    public void setOnFrameMetricsListener(OnFrameMetricsListener listener) {
+        mFrameMetricsListener = listener;
+        if (listener != null) {
+            setMetricsEnabled(true);
+        }
+    }
+
+    /**
+     * Mark work of carousel by trace sections and record its state changes into ring buffer, which can be dumped by
+     * {@link CarouselTrace#dump}. Disabled tracing costs nothing.
+     */
+    public void setTracingEnabled(boolean enabled) {
+        if (enabled && mTrace == null) {
+            mTrace = new CarouselTrace();
+        } else if (!enabled) {
+            mTrace = null;
+        }
+    }
+
+    /**
+     * @return trace of carousel, null when tracing is disabled
+     */
+    public CarouselTrace getTrace() {
+        return mTrace;
+    }
+
+    /**
+     * Record touch events received by carousel and selection jumps into recorder, whose text can be attached to bug
+     * report and replayed. Null stops recording.
+     */
+    public void setGestureRecorder(GestureRecorder recorder) {
+        mGestureRecorder = recorder;
+    }
+
+    public interface OnFrameMetricsListener {
+        /**
+         * Called on UI thread after frame was drawn
+         *
+         * @param frame values of drawn frame, object is reused for next frames
+         */
+        void onFrameMetrics(CarouselMetrics.Frame frame);
+    }
+
     public interface OnItemSelectedListener {
         void onItemSelected(View child, int position);
     }
 
-    protected static class ViewCache<T extends View> {
-        private final LinkedList<WeakReference<T>> mCachedItemViews = new LinkedList<WeakReference<T>>();
+    public interface ViewFactory {
+        /**
+         * Create item view of given type without binding any data, adapter gets it as convertView later. When warm up
+         * runs on executor this is called on background thread, view must then not touch anything bound to main
+         * thread, e.g. handlers of main looper or views attached to window.
+         *
+         * @param parent carousel, only for inflating with its layout params without attaching to it
+         */
+        View createView(ViewGroup parent, int viewType);
+    }
 
+    public interface RecyclerListener {
         /**
-         * Check if list of weak references has any view still in memory to offer for recycling
+         * Item view was removed from widget and moved to cache
          *
-         * @return cached view
+         * @param view view returned by adapter
          */
-        public T getCachedView() {
-            if (mCachedItemViews.size() != 0) {
-                T v;
-                do {
-                    v = mCachedItemViews.removeFirst().get();
+        void onMovedToScrapHeap(View view);
+    }
+
+    /**
+     * Drives running fling or alignment by animation frames and applies moves of dragging finger once per frame. It is
+     * posted only while list moves, so resting list gets no callbacks.
+     */
+    private class ScrollAnimator implements Runnable {
+        private boolean mPosted;
+
+        void start() {
+            if (!mPosted) {
+                mPosted = true;
+                ViewCompat.postOnAnimation(Carousel.this, this);
+            }
+        }
+
+        void stop() {
+            if (mPosted) {
+                removeCallbacks(this);
+                mPosted = false;
+            }
+        }
+
+        @Override
+        public void run() {
+            mPosted = false;
+            if (mTouchState == TOUCH_STATE_SCROLLING) {
+                mFrameStartNanos = System.nanoTime();
+                applyPendingDrag();
+            } else {
+                computeScrollFrame();
+            }
+        }
+    }
+
+    /**
+     * Selected item with offset of scroll from it being exactly in center, and whether list was moving
+     */
+    static class SavedState extends BaseSavedState {
+        int     mPosition;
+        int     mOffset;
+        boolean mHasId;
+        long    mId;
+        int     mTouchState;
+
+        SavedState(Parcelable superState) {
+            super(superState);
+        }
+
+        private SavedState(Parcel in) {
+            super(in);
+            mPosition = in.readInt();
+            mOffset = in.readInt();
+            mHasId = in.readInt() != 0;
+            mId = in.readLong();
+            mTouchState = in.readInt();
+        }
+
+        @Override
+        public void writeToParcel(Parcel out, int flags) {
+            super.writeToParcel(out, flags);
+            out.writeInt(mPosition);
+            out.writeInt(mOffset);
+            out.writeInt(mHasId ? 1 : 0);
+            out.writeLong(mId);
+            out.writeInt(mTouchState);
+        }
+
+        public static final Parcelable.Creator<SavedState> CREATOR = new Parcelable.Creator<SavedState>() {
+            @Override
+            public SavedState createFromParcel(Parcel in) {
+                return new SavedState(in);
+            }
+
+            @Override
+            public SavedState[] newArray(int size) {
+                return new SavedState[size];
+            }
+        };
+    }
+
+    /**
+     * Stable id and content version of item which view was bound to
+     */
+    private static final class ItemKey {
+        long mId;
+        long mVersion;
+    }
+
+    /**
+     * Binds items which will scroll into view soon, in time left after frame was drawn. Stops when next bind would not
+     * fit before start of next frame.
+     */
+    private class Prefetcher implements Runnable {
+        private boolean mPosted;
+        private long    mAverageBindNanos;
+
+        void schedule() {
+            if (!mPosted && mPrefetchMaxCount > 0) {
+                mPosted = true;
+                post(this);
+            }
+        }
+
+        void cancel() {
+            if (mPosted) {
+                removeCallbacks(this);
+                mPosted = false;
+            }
+        }
+
+        @Override
+        public void run() {
+            mPosted = false;
+            if (mAdapter == null || getChildCount() == 0) return;
+
+            final long deadline = mFrameStartNanos + mFrameIntervalNanos;
+            int count = getPrefetchCount();
+            final int direction = mScrollVelocity < 0 ? -1 : 1;
+
+            //destination of fling is known, prepare it first so list does not come to rest on unbound item
+            if (mFlingTargetPosition != NO_VALUE) {
+                final int first = mFlingTargetPosition - FLING_TARGET_NEIGHBOURS;
+                final int last = mFlingTargetPosition + FLING_TARGET_NEIGHBOURS;
+                for (int position = first; position <= last; position++) {
+                    if (!hasItem(position)) continue;
+                    if (position >= mFirstVisibleChild && position <= mLastVisibleChild) continue;
+                    if (!prefetchBefore(position, deadline)) return;
                 }
-                while (v == null && mCachedItemViews.size() != 0);
-                return v;
+                //leave room in pool, so that items ahead do not evict destination
+                count = Math.min(count, mCache.getMaxBound() - (last - first + 1));
+            }
+
+            int position = direction > 0 ? mLastVisibleChild + 1 : mFirstVisibleChild - 1;
+            for (int i = 0; i < count && hasItem(position); i++, position += direction) {
+                if (!prefetchBefore(position, deadline)) return;
             }
-            return null;
         }
 
-        public void cacheView(T v) {
-            WeakReference<T> ref = new WeakReference<T>(v);
-            mCachedItemViews.addLast(ref);
+        /**
+         * Prefetch item unless it is already prepared
+         *
+         * @return false when there is no time left in frame
+         */
+        private boolean prefetchBefore(int position, long deadline) {
+            if (mCache.hasBound(position)) return true;
+
+            final long start = System.nanoTime();
+            if (start + mAverageBindNanos > deadline) return false;
+
+            prefetchView(position);
+
+            final long bindNanos = System.nanoTime() - start;
+            mAverageBindNanos = mAverageBindNanos == 0 ? bindNanos : (mAverageBindNanos * 3 + bindNanos) / 4;
+            return true;
         }
     }
 }
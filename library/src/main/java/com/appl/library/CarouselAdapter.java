@@ -0,0 +1,135 @@
+package com.appl.library;
+
+import android.widget.BaseAdapter;
+
+import java.util.ArrayList;
+
+/**
+ * Adapter which can tell {@link Carousel} exactly which items changed. Carousel then patches only affected children
+ * and keeps its scroll position, instead of rebinding everything as it does after {@link #notifyDataSetChanged()}.
+ * Changes of items which are not attached cost nothing.
+ * <p/>
+ * Range notifications are delivered only to range observers. When there is none, for example when adapter is used by
+ * a plain {@link android.widget.AdapterView}, they fall back to {@link #notifyDataSetChanged()}.
+ */
+public abstract class CarouselAdapter extends BaseAdapter {
+    private final ArrayList<RangeObserver> mRangeObservers = new ArrayList<>();
+    private long mDataVersion;
+
+    public void registerRangeObserver(RangeObserver observer) {
+        if (observer == null) throw new IllegalArgumentException("Observer must not be null");
+        if (mRangeObservers.contains(observer)) throw new IllegalStateException("Observer " + observer + " is already registered");
+        mRangeObservers.add(observer);
+    }
+
+    public void unregisterRangeObserver(RangeObserver observer) {
+        mRangeObservers.remove(observer);
+    }
+
+    /**
+     * Items were inserted, call after data set already contains them
+     *
+     * @param positionStart position of first inserted item
+     * @param itemCount     number of inserted items
+     */
+    public void notifyItemRangeInserted(int positionStart, int itemCount) {
+        if (mRangeObservers.isEmpty()) {
+            notifyDataSetChanged();
+            return;
+        }
+        for (int i = mRangeObservers.size() - 1; i >= 0; i--) {
+            mRangeObservers.get(i).onItemRangeInserted(positionStart, itemCount);
+        }
+    }
+
+    /**
+     * Items were removed, call after they are already gone from data set
+     *
+     * @param positionStart position first removed item had
+     * @param itemCount     number of removed items
+     */
+    public void notifyItemRangeRemoved(int positionStart, int itemCount) {
+        if (mRangeObservers.isEmpty()) {
+            notifyDataSetChanged();
+            return;
+        }
+        for (int i = mRangeObservers.size() - 1; i >= 0; i--) {
+            mRangeObservers.get(i).onItemRangeRemoved(positionStart, itemCount);
+        }
+    }
+
+    /**
+     * Content of items changed, their views have to be bound again
+     */
+    public void notifyItemRangeChanged(int positionStart, int itemCount) {
+        if (mRangeObservers.isEmpty()) {
+            notifyDataSetChanged();
+            return;
+        }
+        for (int i = mRangeObservers.size() - 1; i >= 0; i--) {
+            mRangeObservers.get(i).onItemRangeChanged(positionStart, itemCount);
+        }
+    }
+
+    /**
+     * Block of items was moved
+     *
+     * @param fromPosition position of first moved item before the move
+     * @param toPosition   position of first moved item after the move
+     * @param itemCount    number of moved items
+     */
+    public void notifyItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+        if (mRangeObservers.isEmpty()) {
+            notifyDataSetChanged();
+            return;
+        }
+        for (int i = mRangeObservers.size() - 1; i >= 0; i--) {
+            mRangeObservers.get(i).onItemRangeMoved(fromPosition, toPosition, itemCount);
+        }
+    }
+
+    @Override
+    public void notifyDataSetChanged() {
+        mDataVersion++;
+        super.notifyDataSetChanged();
+    }
+
+    /**
+     * Version of content of item, used by carousel when adapter {@link #hasStableIds() has stable ids}. After
+     * {@link #notifyDataSetChanged()} attached items whose id and version did not change are kept without binding.
+     * Default implementation changes version of all items with every notification, so kept items are bound again in
+     * place. Override it, e.g. with hash of fields item view shows, to skip binds of unchanged items.
+     */
+    public long getItemVersion(int position) {
+        return mDataVersion;
+    }
+
+    public void notifyItemInserted(int position) {
+        notifyItemRangeInserted(position, 1);
+    }
+
+    public void notifyItemRemoved(int position) {
+        notifyItemRangeRemoved(position, 1);
+    }
+
+    public void notifyItemChanged(int position) {
+        notifyItemRangeChanged(position, 1);
+    }
+
+    public void notifyItemMoved(int fromPosition, int toPosition) {
+        notifyItemRangeMoved(fromPosition, toPosition, 1);
+    }
+
+    /**
+     * Receives fine grained notifications about changes in adapter data
+     */
+    public interface RangeObserver {
+        void onItemRangeInserted(int positionStart, int itemCount);
+
+        void onItemRangeRemoved(int positionStart, int itemCount);
+
+        void onItemRangeChanged(int positionStart, int itemCount);
+
+        void onItemRangeMoved(int fromPosition, int toPosition, int itemCount);
+    }
+}
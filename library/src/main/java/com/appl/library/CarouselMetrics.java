@@ -0,0 +1,289 @@
+package com.appl.library;
+
+/**
+ * Per frame timings of {@link Carousel} and their aggregated histogram. Carousel measures time spent binding views
+ * from adapter, laying out children, updating child transformations and drawing, and counts views created and reused.
+ * Values of each frame are passed to {@link Carousel.OnFrameMetricsListener}, and work time of every frame is recorded
+ * into histogram with resolution of {@link #BUCKET_NANOS}, from which percentiles and number of dropped frames can be
+ * read by {@link #snapshot()}.
+ * <p/>
+ * Metrics are collected on UI thread only. Snapshot and reset of histogram can be done from any thread.
+ */
+public class CarouselMetrics {
+    /**
+     * Resolution of histogram
+     */
+    public static final long BUCKET_NANOS = 100000;
+    /**
+     * Frames with longer work time than this are counted in last bucket
+     */
+    private static final int BUCKET_COUNT = 1000;
+
+    private final Frame  mFrame   = new Frame();
+    private final int[]  mBuckets = new int[BUCKET_COUNT + 1];
+    private int  mFrameCount;
+    private int  mDroppedFrames;
+    private long mMaxNanos;
+
+    private long mLastDrawNanos;
+    private boolean mLastDrawMoving;
+    private int  mLastHitCount;
+    private int  mLastMissCount;
+
+    CarouselMetrics(RecyclerPool<?> pool) {
+        mLastHitCount = pool.getHitCount();
+        mLastMissCount = pool.getMissCount();
+    }
+
+    /**
+     * Values measured during one frame. Instance is reused for every frame, copy values which have to be kept.
+     */
+    public static class Frame {
+        long bindNanos;
+        long layoutNanos;
+        long transformNanos;
+        long drawNanos;
+        int  viewsCreated;
+        int  viewsRecycled;
+        int  childCount;
+        int  droppedFrames;
+
+        /**
+         * @return time spent binding views from adapter, including prefetch done after previous frame
+         */
+        public long getBindNanos() {
+            return bindNanos;
+        }
+
+        /**
+         * @return time spent adding, measuring, laying out and removing children, without binding
+         */
+        public long getLayoutNanos() {
+            return layoutNanos;
+        }
+
+        /**
+         * @return time spent updating properties of children which depend on their position
+         */
+        public long getTransformNanos() {
+            return transformNanos;
+        }
+
+        /**
+         * @return time spent drawing children
+         */
+        public long getDrawNanos() {
+            return drawNanos;
+        }
+
+        /**
+         * @return sum of all measured times
+         */
+        public long getTotalNanos() {
+            return bindNanos + layoutNanos + transformNanos + drawNanos;
+        }
+
+        /**
+         * @return number of views adapter had to create, because there was no free view in recycler
+         */
+        public int getViewsCreated() {
+            return viewsCreated;
+        }
+
+        /**
+         * @return number of free views from recycler passed to adapter
+         */
+        public int getViewsRecycled() {
+            return viewsRecycled;
+        }
+
+        /**
+         * @return number of children attached when frame was drawn
+         */
+        public int getChildCount() {
+            return childCount;
+        }
+
+        /**
+         * @return number of frames missed since previous frame while list was moving
+         */
+        public int getDroppedFrames() {
+            return droppedFrames;
+        }
+
+        private void clear() {
+            bindNanos = 0;
+            layoutNanos = 0;
+            transformNanos = 0;
+            drawNanos = 0;
+            viewsCreated = 0;
+            viewsRecycled = 0;
+            childCount = 0;
+            droppedFrames = 0;
+        }
+    }
+
+    /**
+     * Aggregated values of frames recorded since creation or last reset
+     */
+    public static class Snapshot {
+        private final int  mFrameCount;
+        private final int  mDroppedFrames;
+        private final long mP50Nanos;
+        private final long mP95Nanos;
+        private final long mP99Nanos;
+        private final long mMaxNanos;
+
+        Snapshot(int frameCount, int droppedFrames, long p50Nanos, long p95Nanos, long p99Nanos, long maxNanos) {
+            mFrameCount = frameCount;
+            mDroppedFrames = droppedFrames;
+            mP50Nanos = p50Nanos;
+            mP95Nanos = p95Nanos;
+            mP99Nanos = p99Nanos;
+            mMaxNanos = maxNanos;
+        }
+
+        public int getFrameCount() {
+            return mFrameCount;
+        }
+
+        /**
+         * @return number of frames missed while list was moving
+         */
+        public int getDroppedFrames() {
+            return mDroppedFrames;
+        }
+
+        /**
+         * @return median of frame work time, rounded up to resolution of histogram
+         */
+        public long getP50Nanos() {
+            return mP50Nanos;
+        }
+
+        public long getP95Nanos() {
+            return mP95Nanos;
+        }
+
+        public long getP99Nanos() {
+            return mP99Nanos;
+        }
+
+        /**
+         * @return longest frame work time, exact value
+         */
+        public long getMaxNanos() {
+            return mMaxNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "CarouselMetrics[frames=" + mFrameCount + ", dropped=" + mDroppedFrames + ", p50=" + mP50Nanos / 1000
+                    + "us, p95=" + mP95Nanos / 1000 + "us, p99=" + mP99Nanos / 1000 + "us, max=" + mMaxNanos / 1000 + "us]";
+        }
+    }
+
+    void addBind(long nanos) {
+        mFrame.bindNanos += nanos;
+    }
+
+    void addLayout(long nanos) {
+        mFrame.layoutNanos += nanos;
+    }
+
+    void addTransform(long nanos) {
+        mFrame.transformNanos += nanos;
+    }
+
+    void addDraw(long nanos) {
+        mFrame.drawNanos += nanos;
+    }
+
+    /**
+     * @return time spent binding in current frame so far, used to separate binds from layout which triggered them
+     */
+    long getBindNanos() {
+        return mFrame.bindNanos;
+    }
+
+    /**
+     * Finish frame after it was drawn
+     *
+     * @param pool               recycler of carousel, its counters give number of created and reused views
+     * @param childCount         number of attached children
+     * @param moving             true when list moves in this frame
+     * @param drawNanos          time when frame was drawn
+     * @param frameIntervalNanos duration of one frame of display
+     * @return values of finished frame
+     */
+    Frame endFrame(RecyclerPool<?> pool, int childCount, boolean moving, long drawNanos, long frameIntervalNanos) {
+        final Frame frame = mFrame;
+        //counters of pool could have been reset meanwhile
+        frame.viewsRecycled = Math.max(pool.getHitCount() - mLastHitCount, 0);
+        frame.viewsCreated = Math.max(pool.getMissCount() - mLastMissCount, 0);
+        mLastHitCount = pool.getHitCount();
+        mLastMissCount = pool.getMissCount();
+        frame.childCount = childCount;
+
+        //frames are expected one interval apart only while list moves
+        if (moving && mLastDrawMoving && frameIntervalNanos > 0) {
+            final long missed = (drawNanos - mLastDrawNanos + frameIntervalNanos / 2) / frameIntervalNanos - 1;
+            frame.droppedFrames = missed > 0 ? (int) missed : 0;
+        }
+        mLastDrawNanos = drawNanos;
+        mLastDrawMoving = moving;
+
+        record(frame.getTotalNanos(), frame.droppedFrames);
+        return frame;
+    }
+
+    /**
+     * Clear values of frame after it was reported
+     */
+    void startFrame() {
+        mFrame.clear();
+    }
+
+    private synchronized void record(long nanos, int droppedFrames) {
+        final long bucket = nanos / BUCKET_NANOS;
+        mBuckets[bucket > BUCKET_COUNT ? BUCKET_COUNT : (int) bucket]++;
+        mFrameCount++;
+        mDroppedFrames += droppedFrames;
+        if (nanos > mMaxNanos) mMaxNanos = nanos;
+    }
+
+    /**
+     * @return aggregated values of frames recorded so far
+     */
+    public synchronized Snapshot snapshot() {
+        return new Snapshot(mFrameCount, mDroppedFrames, percentile(0.50f), percentile(0.95f), percentile(0.99f),
+                mMaxNanos);
+    }
+
+    /**
+     * Forget recorded frames
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < mBuckets.length; i++) {
+            mBuckets[i] = 0;
+        }
+        mFrameCount = 0;
+        mDroppedFrames = 0;
+        mMaxNanos = 0;
+    }
+
+    /**
+     * @return upper bound of bucket in which given fraction of frames ends
+     */
+    private long percentile(float fraction) {
+        if (mFrameCount == 0) return 0;
+
+        final int rank = (int) Math.ceil(mFrameCount * fraction);
+        int seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mBuckets[i];
+            if (seen >= rank) return Math.min((i + 1) * BUCKET_NANOS, mMaxNanos);
+        }
+        return mMaxNanos;
+    }
+}
@@ -0,0 +1,156 @@
+package com.appl.library;
+
+import android.os.Build;
+import android.os.Trace;
+
+import java.io.PrintWriter;
+
+/**
+ * Tracing of {@link Carousel}. Work done in frame is marked by named sections visible in systrace (Android 4.3+), and
+ * state changes are recorded as compact events into ring buffer of fixed size, which keeps only the latest events.
+ * Events hold only numbers, text is built when buffer is dumped, so recording does not allocate.
+ */
+public class CarouselTrace {
+    /**
+     * Touch state changed, a = old state, b = new state
+     */
+    public static final int EVENT_TOUCH_STATE = 1;
+    /**
+     * Position of list end became known or moved, a = top edge, b = bottom edge
+     */
+    public static final int EVENT_EDGES       = 2;
+    /**
+     * Item in center changed, a = adapter position, b = index of child
+     */
+    public static final int EVENT_SELECTION   = 3;
+    /**
+     * List was dragged, a = applied delta, b = new scroll offset
+     */
+    public static final int EVENT_SCROLL      = 4;
+    /**
+     * Children were refilled, a = first attached position, b = last attached position
+     */
+    public static final int EVENT_REFILL      = 5;
+    /**
+     * Child was attached, a = index of child, b = number of children
+     */
+    public static final int EVENT_CHILD_ADDED = 6;
+    /**
+     * Fling started, a = target position, b = final scroll offset
+     */
+    public static final int EVENT_FLING       = 7;
+
+    static final String SECTION_REFILL    = "Carousel#refill";
+    static final String SECTION_BIND      = "Carousel#bind";
+    static final String SECTION_MEASURE   = "Carousel#measure";
+    static final String SECTION_TRANSFORM = "Carousel#transform";
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final long[] mTimes;
+    private final int[]  mTypes;
+    private final int[]  mFirstArgs;
+    private final int[]  mSecondArgs;
+    private int mNext;
+    private int mSize;
+
+    public CarouselTrace() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity number of latest events kept
+     */
+    public CarouselTrace(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive");
+        mTimes = new long[capacity];
+        mTypes = new int[capacity];
+        mFirstArgs = new int[capacity];
+        mSecondArgs = new int[capacity];
+    }
+
+    void beginSection(String name) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(name);
+        }
+    }
+
+    void endSection() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * Record event, overwriting the oldest one when buffer is full
+     */
+    public synchronized void record(int type, int a, int b) {
+        final int i = mNext;
+        mTimes[i] = System.nanoTime();
+        mTypes[i] = type;
+        mFirstArgs[i] = a;
+        mSecondArgs[i] = b;
+        mNext = (i + 1) % mTimes.length;
+        if (mSize < mTimes.length) mSize++;
+    }
+
+    /**
+     * @return number of events in buffer
+     */
+    public synchronized int size() {
+        return mSize;
+    }
+
+    public synchronized void clear() {
+        mNext = 0;
+        mSize = 0;
+    }
+
+    /**
+     * Write events in buffer from the oldest one, one per line with time relative to the latest event
+     */
+    public synchronized void dump(PrintWriter writer) {
+        if (mSize == 0) {
+            writer.println("CarouselTrace: no events");
+            return;
+        }
+
+        final int capacity = mTimes.length;
+        final int first = (mNext - mSize + capacity) % capacity;
+        final long last = mTimes[(mNext - 1 + capacity) % capacity];
+        writer.println("CarouselTrace: " + mSize + " events");
+        for (int n = 0; n < mSize; n++) {
+            final int i = (first + n) % capacity;
+            writer.print("  -");
+            writer.print((last - mTimes[i]) / 1000);
+            writer.print("us ");
+            writer.print(getEventName(mTypes[i]));
+            writer.print(' ');
+            writer.print(mFirstArgs[i]);
+            writer.print(' ');
+            writer.println(mSecondArgs[i]);
+        }
+        writer.flush();
+    }
+
+    private static String getEventName(int type) {
+        switch (type) {
+            case EVENT_TOUCH_STATE:
+                return "touchState";
+            case EVENT_EDGES:
+                return "edges";
+            case EVENT_SELECTION:
+                return "selection";
+            case EVENT_SCROLL:
+                return "scroll";
+            case EVENT_REFILL:
+                return "refill";
+            case EVENT_CHILD_ADDED:
+                return "childAdded";
+            case EVENT_FLING:
+                return "fling";
+            default:
+                return "event" + type;
+        }
+    }
+}
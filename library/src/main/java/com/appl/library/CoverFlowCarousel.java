@@ -1,15 +1,15 @@
 package com.appl.library;
 
 import android.content.Context;
-import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.LinearGradient;
 import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.PaintFlagsDrawFilter;
 import android.graphics.PorterDuff;
 import android.graphics.PorterDuffXfermode;
+import android.graphics.Shader;
 import android.util.AttributeSet;
-import android.util.Log;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.FrameLayout;
@@ -19,54 +19,12 @@ import android.widget.FrameLayout;
  */
 public class CoverFlowCarousel extends Carousel {
     private static final String TAG = "CoverFlowCarousel";
+    private static final int DRAW_FLAGS = Paint.FILTER_BITMAP_FLAG | Paint.ANTI_ALIAS_FLAG;
+    private final PaintFlagsDrawFilter mDrawFilter = new PaintFlagsDrawFilter(DRAW_FLAGS, DRAW_FLAGS);
     /**
-     * Widget size on which was tuning of parameters done. This value is used to scale parameters on when widgets has different size
+     * Geometry of covers, holds tuning parameters of cover flow
      */
-    private int mTuningWidgetSize = 1280;
-
-    /**
-     * Distance from center as fraction of half of widget size where covers start to rotate into center
-     * 1 means rotation starts on edge of widget, 0 means only center rotated
-     */
-    private float mRotationThreshold = 0.3f;
-
-    /**
-     * Distance from center as fraction of half of widget size where covers start to zoom in
-     * 1 means scaling starts on edge of widget, 0 means only center scaled
-     */
-    private float mScalingThreshold = 0.3f;
-
-    /**
-     * Distance from center as fraction of half of widget size,
-     * where covers start enlarge their spacing to allow for smooth passing each other without jumping over each other
-     * 1 means edge of widget, 0 means only center
-     */
-    private float mAdjustPositionThreshold = 0.1f;
-
-    /**
-     * By enlarging this value, you can enlarge spacing in center of widget done by position adjustment
-     */
-    private float mAdjustPositionMultiplier = 0.8f;
-
-    /**
-     * Absolute value of rotation angle of cover at edge of widget in degrees
-     */
-    private float mMaxRotationAngle = 70.0f;
-
-    /**
-     * Scale factor of item in center
-     */
-    private float mMaxScaleFactor = 1.2f;
-
-    /**
-     * Radius of circle path which covers follow. Range of screen is -1 to 1, minimal radius is therefore 1
-     */
-    private float mRadius = 2f;
-
-    /**
-     * Size multiplier used to simulate perspective
-     */
-    private float mPerspectiveMultiplier = 1f;
+    private final CoverFlowTransform mTransform = new CoverFlowTransform();
 
     /**
      * Size of reflection as a fraction of original image (0-1)
@@ -78,12 +36,19 @@ public class CoverFlowCarousel extends Carousel {
      */
     private int mReflectionOpacity = 0x70;
 
+    /**
+     * Reflections are drawn only when enabled
+     */
+    private boolean mReflectionEnabled = false;
+
     //reflection
     private final Matrix mReflectionMatrix = new Matrix();
     private final Paint mPaint = new Paint();
-    //private final Paint mReflectionPaint = new Paint();
     private final PorterDuffXfermode mXfermode = new PorterDuffXfermode(PorterDuff.Mode.DST_IN);
-    private final Canvas mReflectionCanvas = new Canvas();
+    /**
+     * Vertical gradient from reflection opacity to transparency over unit height, stretched to each reflection by local matrix
+     */
+    private LinearGradient mReflectionShader;
 
     //private boolean mInvalidated = false;
 
@@ -100,42 +65,102 @@ public class CoverFlowCarousel extends Carousel {
     }
 
     private void setTransformation(View v){
-        int c = getChildCenter(v);
-//        v.setRotationY(getRotationAngle(c) - getAngleOnCircle(c));
-//        v.setTranslationX(getChildAdjustPosition(v));
-        v.setRotationX(getRotationAngle(c) - getAngleOnCircle(c));
-        v.setTranslationY(getChildAdjustPosition(v));
-
-        float scale = getScaleFactor(c) - getChildCircularPathZOffset(c);
-        v.setScaleX(scale);
-        v.setScaleY(scale);
+        final CoverFlowTransform t = mTransform;
+        t.compute(getChildCenter(v));
+
+        v.setRotationX(t.mRotation);
+        v.setTranslationY(t.mTranslation);
+        v.setScaleX(t.mScale);
+        v.setScaleY(t.mScale);
     }
 
     @Override
     protected void dispatchDraw(Canvas canvas) {
-        int bitmask = Paint.FILTER_BITMAP_FLAG | Paint.ANTI_ALIAS_FLAG;
-        canvas.setDrawFilter(new PaintFlagsDrawFilter(bitmask, bitmask));
+        canvas.setDrawFilter(mDrawFilter);
         super.dispatchDraw(canvas);
     }
 
-
     @Override
-    public void computeScroll() {
-        super.computeScroll();
+    protected boolean drawChild(Canvas canvas, View child, long drawingTime) {
+        final boolean more = super.drawChild(canvas, child, drawingTime);
+        if (mReflectionEnabled && mReflectionHeight > 0 && mReflectionOpacity > 0) {
+            drawReflection(canvas, child, drawingTime);
+        }
+        return more;
+    }
 
-        for(int i=0; i < getChildCount(); i++){
-            setTransformation(getChildAt(i));
+    /**
+     * Draw child once more mirrored under its bottom edge and fade it out with gradient. Reflection is rendered from
+     * child's own output, so no bitmap is kept per cover, only one temporary layer exists at a time.
+     */
+    private void drawReflection(Canvas canvas, View child, long drawingTime) {
+        //bottom edge after scale around center and translation applied by setTransformation
+        final float scale = child.getScaleY();
+        final float halfHeight = child.getHeight() / 2f;
+        final float bottom = child.getTop() + child.getTranslationY() + halfHeight + halfHeight * scale;
+        final float height = child.getHeight() * scale * mReflectionHeight;
+        if (height < 1) return;
+
+        final float left = child.getLeft() - child.getWidth() * (scale - 1) / 2;
+        final float right = child.getRight() + child.getWidth() * (scale - 1) / 2;
+        final int layer = canvas.saveLayer(left, bottom, right, bottom + height, null, Canvas.ALL_SAVE_FLAG);
+
+        canvas.save();
+        canvas.scale(1, -1, 0, bottom);
+        super.drawChild(canvas, child, drawingTime);
+        canvas.restore();
+
+        if (mReflectionShader == null) {
+            mReflectionShader = new LinearGradient(0, 0, 0, 1, mReflectionOpacity << 24, 0, Shader.TileMode.CLAMP);
+            mPaint.setShader(mReflectionShader);
+            mPaint.setXfermode(mXfermode);
         }
+        mReflectionMatrix.setScale(1, height);
+        mReflectionMatrix.postTranslate(0, bottom);
+        mReflectionShader.setLocalMatrix(mReflectionMatrix);
+        canvas.drawRect(left, bottom, right, bottom + height, mPaint);
+
+        canvas.restoreToCount(layer);
+    }
+
+    /**
+     * Draw reflections under covers
+     */
+    public void setReflectionEnabled(boolean enabled) {
+        mReflectionEnabled = enabled;
+        invalidate();
     }
 
+    /**
+     * @param height size of reflection as a fraction of cover height (0-1)
+     */
+    public void setReflectionHeight(float height) {
+        mReflectionHeight = height;
+        invalidate();
+    }
+
+    /**
+     * @param opacity starting opacity of reflection (0-255), reflection fades from it to transparency
+     */
+    public void setReflectionOpacity(int opacity) {
+        mReflectionOpacity = opacity & 0xff;
+        mReflectionShader = null;
+        invalidate();
+    }
+
+
     @Override
-    protected int getPartOfViewCoveredBySibling() {
-        return 0;
+    protected void onChildrenLayoutChanged() {
+        mTransform.beginFrame(getHeight(), getScrollY(), mChildHeight, mSpacing);
+        for(int i=0; i < getChildCount(); i++){
+            setTransformation(getChildAt(i));
+        }
     }
 
     @Override
     protected View getViewFromAdapter(int position){
-        CoverFrame frame = (CoverFrame) mCache.getCachedView();
+        final int viewType = mAdapter.getItemViewType(position);
+        CoverFrame frame = (CoverFrame) mCache.get(viewType);
         View recycled = null;
         if(frame != null) {
             recycled = frame.getChildAt(0);
@@ -148,153 +173,64 @@ public class CoverFlowCarousel extends Carousel {
             frame.setCover(v);
         }
 
-        //to enable drawing cache
-        if(android.os.Build.VERSION.SDK_INT >= 11) frame.setLayerType(LAYER_TYPE_SOFTWARE, null);
-        frame.setDrawingCacheEnabled(true);
+        setViewType(frame, viewType);
 
         return frame;
     }
 
-    private float getRotationAngle(int childCenter){
-        return mMaxRotationAngle * getClampedRelativePosition(getRelativePosition(childCenter), mRotationThreshold * getWidgetSizeMultiplier());
-    }
-
-    private float getAngleOnCircle(int childCenter){
-        float y = getRelativePosition(childCenter)/mRadius;
-        if(y < -1.0f) y = -1.0f;
-        if(y > 1.0f) y = 1.0f;
-        //todo check
-        return (float) (Math.acos(y)/Math.PI*180.0f - 90.0f);
+    @Override
+    protected View wrapItemView(View itemView) {
+        return new CoverFrame(getContext(), itemView);
     }
 
-    private float getScaleFactor(int childCenter){
-        return 1 + (mMaxScaleFactor-1) * (1 - Math.abs(getClampedRelativePosition(getRelativePosition(childCenter), mScalingThreshold * getWidgetSizeMultiplier())));
+    @Override
+    protected View getItemView(View child) {
+        return ((CoverFrame) child).getChildAt(0);
     }
 
-    /**
-     * Clamps relative position by threshold, and produces values in range -1 to 1 directly usable for transformation computation
-     * @param position value int range -1 to 1
-     * @param threshold always positive value of threshold distance from center in range 0-1
-     * @return
-     */
-    private float getClampedRelativePosition(float position, float threshold){
-        if(position < 0){
-            if(position < -threshold) return -1f;
-            else return position/threshold;
-        }
-        else{
-            if(position > threshold) return 1;
-            else return position/threshold;
+    @Override
+    protected View rebindView(View child, int position) {
+        final int viewType = mAdapter.getItemViewType(position);
+        if (getViewType(child) != viewType) {
+            return getViewFromAdapter(position);
         }
-    }
-
-    /**
-     * Calculates relative position on screen in range -1 to 1, widgets out of screen can have values ove 1 or -1
-     * @param pixexPos Absolute position in pixels including scroll offset
-     * @return relative position
-     */
-    private float getRelativePosition(int pixexPos){
-        final int half = getHeight()/2;
-        final int centerPos = getScrollY() + half;
 
-        return (pixexPos - centerPos)/((float) half);
-    }
-
-    private float getWidgetSizeMultiplier(){
-        return ((float)mTuningWidgetSize)/((float)getHeight());
-    }
-
-    private float getChildAdjustPosition(View child) {
-        final int c = getChildCenter(child);
-        final float crp = getClampedRelativePosition(getRelativePosition(c), mAdjustPositionThreshold * getWidgetSizeMultiplier());
-        final float d = mChildHeight * mAdjustPositionMultiplier * mSpacing * crp * getSpacingMultiplierOnCirlce(c);
-
-        return d;
-    }
-
-    private float getSpacingMultiplierOnCirlce(int childCenter){
-        float y = getRelativePosition(childCenter)/mRadius;
-        return (float) Math.sin(Math.acos(y));
-    }
-
-    /**
-     * Compute offset following path on circle
-     * @param childCenter
-     * @return offset from position on unitary circle
-     */
-    private float getOffsetOnCircle(int childCenter){
-        float y = getRelativePosition(childCenter)/mRadius;
-        if(y < -1.0f) y = -1.0f;
-        if(y > 1.0f) y = 1.0f;
-
-        return (float) (1 - Math.sin(Math.acos(y)));
-    }
-
-    private float getChildCircularPathZOffset(int center){
-
-        final float v = getOffsetOnCircle(center);
-        final float z = mPerspectiveMultiplier * v;
-
-        return  z;
+        final CoverFrame frame = (CoverFrame) child;
+        final View cover = frame.getChildAt(0);
+        final View v = mAdapter.getView(position, cover, this);
+        if (v != cover) {
+            frame.setCover(v);
+        }
+        return frame;
     }
 
     private class CoverFrame extends FrameLayout {
-        private Bitmap mReflectionCache;
-        private boolean mReflectionCacheInvalid = false;
-
+        private final FrameLayout.LayoutParams mCoverLayoutParams = new FrameLayout.LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT);
 
         public CoverFrame(Context context, View cover) {
             super(context);
+            mCoverLayoutParams.leftMargin = 1;
+            mCoverLayoutParams.topMargin = 1;
+            mCoverLayoutParams.rightMargin = 1;
+            mCoverLayoutParams.bottomMargin = 1;
             setCover(cover);
         }
 
         public void setCover(View cover){
+            //adapter returned recycled cover, it is already in place
+            if (getChildCount() == 1 && getChildAt(0) == cover) return;
+
             removeAllViews();
-            //mReflectionCacheInvalid = true; //todo uncomment after adding support for reflection
             if(cover.getLayoutParams() != null) setLayoutParams(cover.getLayoutParams());
 
-            final FrameLayout.LayoutParams lp = new FrameLayout.LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT);
-            lp.leftMargin = 1;
-            lp.topMargin = 1;
-            lp.rightMargin = 1;
-            lp.bottomMargin = 1;
-
             if (cover.getParent()!=null && cover.getParent() instanceof ViewGroup) {
                 ViewGroup parent = (ViewGroup) cover.getParent();
                 parent.removeView(cover);
             }
 
-            addView(cover,lp);
-        }
-        //todo investigate why we need drawing cache(- only for reflection image?)
-        @Override
-        public Bitmap getDrawingCache(boolean autoScale) {
-            final Bitmap b = super.getDrawingCache(autoScale);
-
-            if(mReflectionCacheInvalid){
-                if(/*(mTouchState != TOUCH_STATE_FLING && mTouchState != TOUCH_STATE_ALIGN) || */mReflectionCache == null){
-                    try{
-                        mReflectionCacheInvalid = false;
-                    }
-                    catch (NullPointerException e){
-                        Log.e(VIEW_LOG_TAG, "Null pointer in createReflectionBitmap. Bitmap b=" + b, e);
-                    }
-                }
-            }
-            return b;
+            addView(cover,mCoverLayoutParams);
         }
-
-        public void recycle(){ //todo add puttocache method and call recycle
-            if(mReflectionCache != null){
-                mReflectionCache.recycle();
-                mReflectionCache = null;
-            }
-            mReflectionCacheInvalid = true;
-
-            //removeAllViewsInLayout();
-        }
-
     }
 
 
-}
+}
\ No newline at end of file
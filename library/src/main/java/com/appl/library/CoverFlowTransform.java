@@ -0,0 +1,168 @@
+package com.appl.library;
+
+/**
+ * Computes cover flow geometry of children from their position relative to center of widget. Everything what depends
+ * only on widget size, scroll offset and tuning parameters is computed once per frame in {@link #beginFrame}, trigonometry
+ * of circular path is looked up in tables, so {@link #compute} costs only a few float operations per child.
+ * <p/>
+ * Angle on circle is asin(y) and offset on circle is 1 - sqrt(1 - y<sup>2</sup>), where y is relative position divided
+ * by radius. Both are sampled over y in range -1 to 1 and linearly interpolated, only in outermost interval on each
+ * side they are evaluated directly. Compared to evaluating them with {@link Math}, rotation differs by less than 0.001
+ * degree and scale and translation by less than 0.00001 (relative to child height) while |y| &lt; 0.9, which covers all
+ * visible covers with default radius. Towards |y| = 1 error grows, but stays below 0.1 degree and 0.002. Covers further
+ * than radius from center are clamped to end of circle.
+ */
+final class CoverFlowTransform {
+    private static final int TABLE_SIZE = 2049;
+    private static final float TABLE_SCALE = (TABLE_SIZE - 1) / 2f;
+    /**
+     * asin(y) in degrees
+     */
+    private static final float[] ANGLE_ON_CIRCLE = new float[TABLE_SIZE];
+    /**
+     * sqrt(1 - y*y), which is sin(acos(y))
+     */
+    private static final float[] SPACING_ON_CIRCLE = new float[TABLE_SIZE];
+
+    static {
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            final double y = Math.min(1.0, i / (double) TABLE_SCALE - 1.0);
+            ANGLE_ON_CIRCLE[i] = (float) Math.toDegrees(Math.asin(y));
+            SPACING_ON_CIRCLE[i] = (float) Math.sqrt(Math.max(0.0, 1.0 - y * y));
+        }
+    }
+
+    /**
+     * Widget size on which was tuning of parameters done. This value is used to scale parameters on when widgets has different size
+     */
+    int mTuningWidgetSize = 1280;
+
+    /**
+     * Distance from center as fraction of half of widget size where covers start to rotate into center
+     * 1 means rotation starts on edge of widget, 0 means only center rotated
+     */
+    float mRotationThreshold = 0.3f;
+
+    /**
+     * Distance from center as fraction of half of widget size where covers start to zoom in
+     * 1 means scaling starts on edge of widget, 0 means only center scaled
+     */
+    float mScalingThreshold = 0.3f;
+
+    /**
+     * Distance from center as fraction of half of widget size,
+     * where covers start enlarge their spacing to allow for smooth passing each other without jumping over each other
+     * 1 means edge of widget, 0 means only center
+     */
+    float mAdjustPositionThreshold = 0.1f;
+
+    /**
+     * By enlarging this value, you can enlarge spacing in center of widget done by position adjustment
+     */
+    float mAdjustPositionMultiplier = 0.8f;
+
+    /**
+     * Absolute value of rotation angle of cover at edge of widget in degrees
+     */
+    float mMaxRotationAngle = 70.0f;
+
+    /**
+     * Scale factor of item in center
+     */
+    float mMaxScaleFactor = 1.2f;
+
+    /**
+     * Radius of circle path which covers follow. Range of screen is -1 to 1, minimal radius is therefore 1
+     */
+    float mRadius = 2f;
+
+    /**
+     * Size multiplier used to simulate perspective
+     */
+    float mPerspectiveMultiplier = 1f;
+
+    //per frame constants
+    private int   mCenterPos;
+    private float mInvHalf;
+    private float mScaledRotationThreshold;
+    private float mScaledScalingThreshold;
+    private float mScaledAdjustThreshold;
+    private float mInvRotationThreshold;
+    private float mInvScalingThreshold;
+    private float mInvAdjustThreshold;
+    private float mInvRadius;
+    private float mAdjustFactor;
+
+    //results of last compute
+    float mRotation;
+    float mTranslation;
+    float mScale;
+
+    /**
+     * Prepare constants for all children drawn in this frame
+     *
+     * @param height      height of widget
+     * @param scrollY     vertical scroll offset of widget
+     * @param childHeight height of child
+     * @param spacing     relative spacing of children
+     */
+    void beginFrame(int height, int scrollY, int childHeight, float spacing) {
+        final int half = height / 2;
+        mCenterPos = scrollY + half;
+        mInvHalf = half == 0 ? 0f : 1f / half;
+
+        final float sizeMultiplier = height == 0 ? 1f : mTuningWidgetSize / (float) height;
+        mScaledRotationThreshold = mRotationThreshold * sizeMultiplier;
+        mScaledScalingThreshold = mScalingThreshold * sizeMultiplier;
+        mScaledAdjustThreshold = mAdjustPositionThreshold * sizeMultiplier;
+        mInvRotationThreshold = 1f / mScaledRotationThreshold;
+        mInvScalingThreshold = 1f / mScaledScalingThreshold;
+        mInvAdjustThreshold = 1f / mScaledAdjustThreshold;
+        mInvRadius = 1f / mRadius;
+        mAdjustFactor = childHeight * mAdjustPositionMultiplier * spacing;
+    }
+
+    /**
+     * Compute rotation, translation and scale of child, results are stored in {@link #mRotation},
+     * {@link #mTranslation} and {@link #mScale}
+     *
+     * @param childCenter center of child in pixels, including scroll offset
+     */
+    void compute(int childCenter) {
+        final float position = (childCenter - mCenterPos) * mInvHalf;
+
+        final float y = position * mInvRadius;
+        final float angleOnCircle;
+        final float spacingOnCircle;
+        final float index = (y + 1f) * TABLE_SCALE;
+        final int i = (int) index;
+        if (y <= -1f || y >= 1f) {
+            //covers beyond radius are clamped to end of circle
+            angleOnCircle = y < 0f ? -90f : 90f;
+            spacingOnCircle = 0f;
+        } else if (i == 0 || i >= TABLE_SIZE - 2) {
+            //slope of both functions is unbounded at ends of circle, interpolation would be off by tenths of degree
+            angleOnCircle = (float) Math.toDegrees(Math.asin(y));
+            spacingOnCircle = (float) Math.sqrt(1f - y * y);
+        } else {
+            final float fraction = index - i;
+            angleOnCircle = ANGLE_ON_CIRCLE[i] + (ANGLE_ON_CIRCLE[i + 1] - ANGLE_ON_CIRCLE[i]) * fraction;
+            spacingOnCircle = SPACING_ON_CIRCLE[i] + (SPACING_ON_CIRCLE[i + 1] - SPACING_ON_CIRCLE[i]) * fraction;
+        }
+
+        mRotation = mMaxRotationAngle * clamp(position, mScaledRotationThreshold, mInvRotationThreshold) + angleOnCircle;
+        mTranslation = mAdjustFactor * clamp(position, mScaledAdjustThreshold, mInvAdjustThreshold) * spacingOnCircle;
+
+        final float scaling = clamp(position, mScaledScalingThreshold, mInvScalingThreshold);
+        mScale = 1 + (mMaxScaleFactor - 1) * (1 - Math.abs(scaling)) - mPerspectiveMultiplier * (1 - spacingOnCircle);
+    }
+
+    /**
+     * Clamps relative position by threshold, and produces values in range -1 to 1 directly usable for transformation computation
+     */
+    private static float clamp(float position, float threshold, float invThreshold) {
+        if (position < -threshold) return -1f;
+        if (position > threshold) return 1f;
+        return position * invThreshold;
+    }
+}
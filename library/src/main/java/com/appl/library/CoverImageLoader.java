@@ -0,0 +1,404 @@
+package com.appl.library;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Loads cover images for carousel items in background. Images are decoded downsampled to size of carousel item and
+ * kept in memory cache bounded by number of bytes. Loads are meant to be started from {@link android.widget.Adapter#getView},
+ * result is delivered only if image view still shows the same position, request for view which was recycled meanwhile
+ * is cancelled.
+ * <p/>
+ * To cancel loads of views scrolled out of carousel, call {@link #cancel(ImageView)} from
+ * {@link Carousel.RecyclerListener}. All methods except {@link Source#decode} must be called from main thread.
+ * <p/>
+ * With {@link BitmapPool} set, decoder reuses pooled bitmaps and bitmaps which were evicted from memory cache and are
+ * no longer shown by any image view go back to pool.
+ */
+public class CoverImageLoader {
+    private static final int DECODE_THREADS = 2;
+
+    private final Handler                   mMainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService           mExecutor;
+    private final LruCache<String, Bitmap> mCache;
+    /**
+     * Bitmaps decoded by this loader, with number of image views showing them and loads about to show them. Guarded
+     * by itself.
+     */
+    private final WeakHashMap<Bitmap, Usage> mUsages = new WeakHashMap<>();
+    private volatile BitmapPool mBitmapPool;
+    private Drawable mPlaceholder;
+    private Bitmap.Config mConfig = Bitmap.Config.ARGB_8888;
+
+    /**
+     * Create loader with memory cache taking 1/8 of available heap
+     */
+    public CoverImageLoader() {
+        this((int) (Runtime.getRuntime().maxMemory() / 8));
+    }
+
+    /**
+     * @param cacheBytes maximal size of decoded images kept in memory, in bytes
+     */
+    public CoverImageLoader(int cacheBytes) {
+        this(cacheBytes, Executors.newFixedThreadPool(DECODE_THREADS, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                }, "CoverImageLoader");
+                thread.setDaemon(true);
+                return thread;
+            }
+        }));
+    }
+
+    /**
+     * @param cacheBytes maximal size of decoded images kept in memory, in bytes
+     * @param executor   executor on which images are decoded
+     */
+    public CoverImageLoader(int cacheBytes, ExecutorService executor) {
+        mExecutor = executor;
+        mCache = new LruCache<String, Bitmap>(cacheBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                if (oldValue != newValue) {
+                    onRemovedFromCache(oldValue);
+                }
+            }
+        };
+    }
+
+    /**
+     * Set pool from which decoder takes bitmaps to reuse and to which released bitmaps are returned
+     */
+    public void setBitmapPool(BitmapPool bitmapPool) {
+        mBitmapPool = bitmapPool;
+    }
+
+    /**
+     * Drawable shown while image is loading, null means empty image view
+     */
+    public void setPlaceholder(Drawable placeholder) {
+        mPlaceholder = placeholder;
+    }
+
+    /**
+     * Bitmap config used for decoding, default is {@link Bitmap.Config#ARGB_8888}. Bitmaps cached in other config are
+     * not reused for later loads.
+     */
+    public void setBitmapConfig(Bitmap.Config config) {
+        mConfig = config;
+    }
+
+    /**
+     * Load image downsampled to size of carousel items
+     *
+     * @param carousel carousel which shows the image, usually parent passed to getView
+     */
+    public void load(Source source, ImageView target, int position, Carousel carousel) {
+        load(source, target, position, carousel.getChildWidth(), carousel.getChildHeight());
+    }
+
+    /**
+     * Load image into target, image is downsampled so that it is still at least as large as requested size
+     *
+     * @param position adapter position target is bound to
+     */
+    public void load(Source source, ImageView target, int position, int width, int height) {
+        final Bitmap.Config config = mConfig;
+        final String key = source.getKey() + '@' + width + 'x' + height + '/' + config;
+
+        final Request pending = (Request) target.getTag(R.id.carousel_image_request);
+        if (pending != null) {
+            if (pending.mPosition == position && pending.mKey.equals(key)) return;
+            pending.cancel();
+        }
+
+        //bitmap is held while it is taken from cache, so that concurrent eviction can't release it before it is shown
+        final Bitmap cached;
+        synchronized (mUsages) {
+            cached = mCache.get(key);
+            if (cached != null) holdBitmap(cached);
+        }
+        if (cached != null) {
+            target.setTag(R.id.carousel_image_request, null);
+            setImage(target, cached);
+            releaseBitmapHold(cached);
+            return;
+        }
+
+        setImage(target, null);
+        final Request request = new Request(source, key, target, position, width, height, config);
+        target.setTag(R.id.carousel_image_request, request);
+        request.mFuture = mExecutor.submit(request);
+    }
+
+    /**
+     * Cancel pending load of target, typically because its view was recycled
+     */
+    public void cancel(ImageView target) {
+        final Request pending = (Request) target.getTag(R.id.carousel_image_request);
+        if (pending != null) {
+            pending.cancel();
+            target.setTag(R.id.carousel_image_request, null);
+        }
+    }
+
+    /**
+     * Show bitmap in target and keep track of which bitmaps are on screen, so that only unused ones are pooled
+     *
+     * @param bitmap bitmap or null to show placeholder
+     */
+    private void setImage(ImageView target, Bitmap bitmap) {
+        final Bitmap previous = (Bitmap) target.getTag(R.id.carousel_image_bitmap);
+        if (previous != null && previous == bitmap) return;
+
+        if (bitmap != null) {
+            synchronized (mUsages) {
+                holdBitmap(bitmap);
+            }
+            target.setImageBitmap(bitmap);
+        } else {
+            target.setImageDrawable(mPlaceholder);
+        }
+        target.setTag(R.id.carousel_image_bitmap, bitmap);
+
+        if (previous != null) {
+            releaseBitmapHold(previous);
+        }
+    }
+
+    /**
+     * Count one more user of bitmap, must be called with lock of usages held
+     */
+    private void holdBitmap(Bitmap bitmap) {
+        final Usage usage = mUsages.get(bitmap);
+        if (usage != null) usage.mDisplays++;
+    }
+
+    /**
+     * Drop one user of bitmap, bitmap goes to pool when it was evicted from cache and nobody uses it any more
+     */
+    private void releaseBitmapHold(Bitmap bitmap) {
+        synchronized (mUsages) {
+            final Usage usage = mUsages.get(bitmap);
+            if (usage != null && --usage.mDisplays == 0 && usage.mEvicted) {
+                mUsages.remove(bitmap);
+                releaseBitmap(bitmap);
+            }
+        }
+    }
+
+    private void onRemovedFromCache(Bitmap bitmap) {
+        synchronized (mUsages) {
+            final Usage usage = mUsages.get(bitmap);
+            if (usage == null) return;
+
+            if (usage.mDisplays == 0) {
+                mUsages.remove(bitmap);
+                releaseBitmap(bitmap);
+            } else {
+                usage.mEvicted = true;
+            }
+        }
+    }
+
+    private void releaseBitmap(Bitmap bitmap) {
+        final BitmapPool pool = mBitmapPool;
+        if (pool != null) {
+            pool.put(bitmap);
+        }
+    }
+
+    /**
+     * Drop all decoded images from memory cache
+     */
+    public void clearCache() {
+        mCache.evictAll();
+    }
+
+    /**
+     * Release decode threads, loader can't be used afterwards
+     */
+    public void shutdown() {
+        mExecutor.shutdownNow();
+        mCache.evictAll();
+    }
+
+    static int computeSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int sampleSize = 1;
+        if (reqWidth <= 0 || reqHeight <= 0) return sampleSize;
+
+        while (width / (sampleSize * 2) >= reqWidth && height / (sampleSize * 2) >= reqHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Image which can be decoded by loader
+     */
+    public abstract static class Source {
+
+        /**
+         * @return key identifying image, used for caching
+         */
+        public abstract String getKey();
+
+        /**
+         * Decode image, called on background thread. Called twice for each load, first with
+         * {@link BitmapFactory.Options#inJustDecodeBounds} set.
+         */
+        public abstract Bitmap decode(BitmapFactory.Options options);
+
+        public static Source fromResource(final Resources resources, final int resId) {
+            return new Source() {
+                @Override
+                public String getKey() {
+                    return "res:" + resId;
+                }
+
+                @Override
+                public Bitmap decode(BitmapFactory.Options options) {
+                    return BitmapFactory.decodeResource(resources, resId, options);
+                }
+            };
+        }
+
+        public static Source fromFile(final String path) {
+            return new Source() {
+                @Override
+                public String getKey() {
+                    return "file:" + path;
+                }
+
+                @Override
+                public Bitmap decode(BitmapFactory.Options options) {
+                    return BitmapFactory.decodeFile(path, options);
+                }
+            };
+        }
+    }
+
+    private class Request implements Runnable {
+        private final Source    mSource;
+        private final String    mKey;
+        private final ImageView mTarget;
+        private final int       mPosition;
+        private final int       mWidth;
+        private final int       mHeight;
+        private final Bitmap.Config mConfig;
+        private volatile boolean mCancelled;
+        private Future<?> mFuture;
+        private Bitmap    mResult;
+
+        Request(Source source, String key, ImageView target, int position, int width, int height,
+                Bitmap.Config config) {
+            mSource = source;
+            mKey = key;
+            mTarget = target;
+            mPosition = position;
+            mWidth = width;
+            mHeight = height;
+            //decoded in config of its key, even if loader config changes meanwhile
+            mConfig = config;
+        }
+
+        void cancel() {
+            mCancelled = true;
+            if (mFuture != null) {
+                mFuture.cancel(false);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (mResult == null) {
+                //background part
+                if (mCancelled) return;
+                final BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inJustDecodeBounds = true;
+                mSource.decode(options);
+                if (mCancelled || options.outWidth <= 0 || options.outHeight <= 0) return;
+
+                options.inJustDecodeBounds = false;
+                options.inSampleSize = computeSampleSize(options.outWidth, options.outHeight, mWidth, mHeight);
+                options.inPreferredConfig = mConfig;
+                final Bitmap bitmap = decode(options);
+                if (bitmap == null) return;
+
+                //pending delivery holds bitmap, so that it is not pooled when evicted before it is shown
+                final Usage usage = new Usage();
+                usage.mDisplays = 1;
+                synchronized (mUsages) {
+                    mUsages.put(bitmap, usage);
+                }
+                mCache.put(mKey, bitmap);
+                mResult = bitmap;
+                mMainHandler.post(this);
+            } else {
+                //delivery on main thread, runs also for cancelled request to release hold of pending delivery
+                if (!mCancelled && mTarget.getTag(R.id.carousel_image_request) == this) {
+                    mTarget.setTag(R.id.carousel_image_request, null);
+                    setImage(mTarget, mResult);
+                }
+                releaseBitmapHold(mResult);
+            }
+        }
+
+        private Bitmap decode(BitmapFactory.Options options) {
+            final BitmapPool pool = mBitmapPool;
+            if (pool == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+                return mSource.decode(options);
+            }
+
+            //before KitKat bitmap can be reused only for decoding image of the same size without sampling
+            final int sampleSize = options.inSampleSize;
+            options.inMutable = true;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT || sampleSize == 1) {
+                final int width = (options.outWidth + sampleSize - 1) / sampleSize;
+                final int height = (options.outHeight + sampleSize - 1) / sampleSize;
+                options.inBitmap = pool.getDirty(width, height, mConfig);
+            }
+
+            try {
+                return mSource.decode(options);
+            } catch (IllegalArgumentException e) {
+                if (options.inBitmap == null) throw e;
+                //pooled bitmap was not suitable for this image
+                pool.put(options.inBitmap);
+                options.inBitmap = null;
+                return mSource.decode(options);
+            }
+        }
+    }
+
+    private static final class Usage {
+        int     mDisplays;
+        boolean mEvicted;
+    }
+}
@@ -0,0 +1,66 @@
+package com.appl.library;
+
+import android.os.SystemClock;
+import android.view.MotionEvent;
+
+/**
+ * Records touch events received by {@link Carousel} and selection jumps made on it in plain text, one step per line, so
+ * gesture which led to a bug on device can be attached to the report and replayed by tests as regression scenario.
+ * Times are in milliseconds relative to first step, coordinates are relative to carousel.
+ * <p/>
+ * Recording is opt-in through {@link Carousel#setGestureRecorder}, carousel without recorder does no work for it.
+ * Recorder is used from main thread only.
+ */
+public class GestureRecorder {
+    /**
+     * Line of touch event: time, name, action, x and y
+     */
+    static final String STEP_TOUCH     = "touch";
+    /**
+     * Line of {@link Carousel#setSelection(int)}: time, name and adapter position
+     */
+    static final String STEP_SELECTION = "select";
+
+    private final StringBuilder mText = new StringBuilder();
+    private long mStartTime = -1;
+    private int  mStepCount;
+
+    /**
+     * Append touch event received by carousel
+     */
+    public void record(MotionEvent ev) {
+        appendTime(ev.getEventTime()).append(STEP_TOUCH).append(' ').append(ev.getActionMasked()).append(' ')
+                .append(ev.getX()).append(' ').append(ev.getY()).append('\n');
+    }
+
+    /**
+     * Append selection jump made by application
+     */
+    public void recordSelection(int position) {
+        appendTime(SystemClock.uptimeMillis()).append(STEP_SELECTION).append(' ').append(position).append('\n');
+    }
+
+    private StringBuilder appendTime(long uptime) {
+        if (mStartTime < 0) mStartTime = uptime;
+        mStepCount++;
+        return mText.append(uptime - mStartTime).append(' ');
+    }
+
+    public int getStepCount() {
+        return mStepCount;
+    }
+
+    public void clear() {
+        mText.setLength(0);
+        mStartTime = -1;
+        mStepCount = 0;
+    }
+
+    /**
+     * @return recorded steps, one per line
+     */
+    @Override
+    public String toString() {
+        return mText.toString();
+    }
+}
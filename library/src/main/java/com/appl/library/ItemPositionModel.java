@@ -0,0 +1,79 @@
+package com.appl.library;
+
+/**
+ * Arithmetic model of item positions in list of uniformly sized items. Center of every item is
+ * origin + position * pitch, so item under any pixel and items intersecting any range are computed in constant time
+ * without looking at attached views. In circular mode positions are not limited to range of items.
+ */
+final class ItemPositionModel {
+    private int mOrigin;
+    private int mPitch = 1;
+    private int mItemSize;
+    private int mCount;
+    private boolean mCircular;
+
+    /**
+     * @param anchorPosition adapter position of item with known center
+     * @param anchorCenter   center of that item in pixels, including scroll offset
+     * @param pitch          distance between centers of two neighbouring items
+     * @param itemSize       size of item
+     * @param count          number of items
+     * @param circular       true when positions are not clamped to range of items
+     */
+    void set(int anchorPosition, int anchorCenter, int pitch, int itemSize, int count, boolean circular) {
+        mPitch = Math.max(pitch, 1);
+        mOrigin = anchorCenter - anchorPosition * mPitch;
+        mItemSize = itemSize;
+        mCount = count;
+        mCircular = circular;
+    }
+
+    /**
+     * @return center of item in pixels, including scroll offset
+     */
+    int getCenter(int position) {
+        return mOrigin + position * mPitch;
+    }
+
+    /**
+     * @return position of item with center nearest to given pixel, when two are equally near the lower one. Result is
+     * clamped to range of items unless model is circular.
+     */
+    int getPositionAt(int pixel) {
+        //round half down, so that result matches nearest-center search over children
+        final int position = floorDiv(2 * (pixel - mOrigin) + mPitch - 1, 2 * mPitch);
+        return clamp(position);
+    }
+
+    /**
+     * @return lowest position of item which intersects range from start (inclusive) to end (exclusive), clamped to
+     * range of items unless model is circular
+     */
+    int getFirstPositionIn(int start) {
+        //item spans from center - (size - size / 2) to center + size / 2, it intersects when its end is after start
+        return clamp(floorDiv(start - mItemSize / 2 - mOrigin, mPitch) + 1);
+    }
+
+    /**
+     * @return highest position of item which intersects range from start (inclusive) to end (exclusive), clamped to
+     * range of items unless model is circular
+     */
+    int getLastPositionIn(int end) {
+        //item intersects when its start is before end
+        final int reach = mItemSize - mItemSize / 2;
+        return clamp(floorDiv(end + reach - 1 - mOrigin, mPitch));
+    }
+
+    private int clamp(int position) {
+        if (mCircular) return position;
+        if (position >= mCount) position = mCount - 1;
+        if (position < 0) position = 0;
+        return position;
+    }
+
+    private static int floorDiv(int x, int y) {
+        int r = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0)) r--;
+        return r;
+    }
+}
@@ -0,0 +1,352 @@
+package com.appl.library;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.SparseArray;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Adapter for large catalogs served in pages. Only number of items has to be known up front, items are loaded in pages
+ * of fixed size on background executor when carousel binds position near them. Until its page arrives, position shows
+ * placeholder view, and loaded items then replace placeholders in place through {@link #notifyItemRangeChanged}, so
+ * carousel keeps its scroll position. Number of pages kept in memory is capped, pages farthest from last bound position
+ * are dropped first and loaded again when needed. Pages which failed to load are retried with growing delay while they
+ * are still near bound position.
+ * <p/>
+ * All methods except {@link #loadPage} must be called from main thread. Call {@link #release()} when carousel goes
+ * away, e.g. from Activity.onDestroy, so that loader thread stops and no page is delivered afterwards.
+ *
+ * @param <T> type of items
+ */
+public abstract class PagedCarouselAdapter<T> extends CarouselAdapter {
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int DEFAULT_MAX_PAGES = 8;
+    /**
+     * Delay before first retry of failed page, doubled with every further failure up to {@link #MAX_RETRY_DELAY_MS}
+     */
+    public static final int RETRY_DELAY_MS     = 1000;
+    public static final int MAX_RETRY_DELAY_MS = 30000;
+
+    protected static final int VIEW_TYPE_ITEM        = 0;
+    protected static final int VIEW_TYPE_PLACEHOLDER = 1;
+
+    private final Handler         mMainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor;
+    private final int mPageSize;
+    private final int mMaxPages;
+    private final SparseArray<List<T>>   mPages   = new SparseArray<>();
+    private final SparseArray<PageLoad> mLoading = new SparseArray<>();
+    private int mCount;
+    /**
+     * Distance from bound position to which next pages are loaded ahead
+     */
+    private int mPrefetchDistance;
+    private int mLastBoundPosition;
+    private boolean mReleased;
+
+    public PagedCarouselAdapter(int count) {
+        this(count, DEFAULT_PAGE_SIZE, DEFAULT_MAX_PAGES);
+    }
+
+    public PagedCarouselAdapter(int count, int pageSize, int maxPages) {
+        this(count, pageSize, maxPages, Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                }, "PagedCarouselAdapter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        }));
+    }
+
+    /**
+     * @param count    number of items in catalog
+     * @param pageSize number of items loaded at once
+     * @param maxPages maximal number of pages kept in memory, at least 3 so that window can span page boundary
+     * @param executor executor on which pages are loaded
+     */
+    public PagedCarouselAdapter(int count, int pageSize, int maxPages, ExecutorService executor) {
+        if (count < 0) throw new IllegalArgumentException("Count must not be negative");
+        if (pageSize <= 0) throw new IllegalArgumentException("Page size must be positive");
+        if (maxPages < 3) throw new IllegalArgumentException("At least 3 pages have to fit in memory");
+        mCount = count;
+        mPageSize = pageSize;
+        mMaxPages = maxPages;
+        mExecutor = executor;
+        mPrefetchDistance = pageSize / 2;
+    }
+
+    /**
+     * Load items of one page, called on background thread
+     *
+     * @param start position of first item
+     * @param count number of items, last page can be shorter than page size
+     * @return loaded items, returning fewer items than requested or throwing exception leaves rest of page as
+     * placeholders, page is then retried with growing delay while it is near bound position
+     */
+    protected abstract List<T> loadPage(int start, int count) throws Exception;
+
+    /**
+     * Create or bind view of loaded item
+     */
+    protected abstract View getItemView(int position, T item, View convertView, ViewGroup parent);
+
+    /**
+     * Create or bind view shown while item is loading. Placeholder should be cheap, it is bound for every position
+     * scrolled over during fast fling.
+     */
+    protected abstract View getPlaceholderView(int position, View convertView, ViewGroup parent);
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Change number of items, e.g. when catalog grows. Loaded pages of remaining items are kept.
+     */
+    public void setCount(int count) {
+        if (count < 0) throw new IllegalArgumentException("Count must not be negative");
+        final int oldCount = mCount;
+        if (count == oldCount) return;
+
+        mCount = count;
+        if (count > oldCount) {
+            //last page could have been short, load it again with new items
+            dropPage(pageOf(oldCount - 1));
+            notifyItemRangeInserted(oldCount, count - oldCount);
+        } else {
+            for (int i = mPages.size() - 1; i >= 0; i--) {
+                if (mPages.keyAt(i) * mPageSize + mPages.valueAt(i).size() > count) dropPage(mPages.keyAt(i));
+            }
+            for (int i = mLoading.size() - 1; i >= 0; i--) {
+                if ((mLoading.keyAt(i) + 1) * mPageSize > count) dropPage(mLoading.keyAt(i));
+            }
+            notifyItemRangeRemoved(count, oldCount - count);
+        }
+    }
+
+    /**
+     * Drop all loaded pages, attached items show placeholders until their pages are loaded again
+     */
+    public void refresh() {
+        for (int i = mLoading.size() - 1; i >= 0; i--) {
+            mLoading.valueAt(i).mCancelled = true;
+        }
+        mLoading.clear();
+        mPages.clear();
+        if (mCount > 0) {
+            notifyItemRangeChanged(0, mCount);
+        }
+    }
+
+    /**
+     * Stop loading pages and drop loaded ones. Pages still loading or waiting for retry are never delivered, adapter
+     * only shows placeholders afterwards.
+     */
+    public void release() {
+        mReleased = true;
+        mExecutor.shutdownNow();
+        for (int i = mLoading.size() - 1; i >= 0; i--) {
+            mLoading.valueAt(i).mCancelled = true;
+        }
+        mLoading.clear();
+        mPages.clear();
+        mMainHandler.removeCallbacksAndMessages(null);
+    }
+
+    /**
+     * @param distance number of items ahead of bound position in both directions whose pages are loaded in advance
+     */
+    public void setPrefetchDistance(int distance) {
+        mPrefetchDistance = Math.max(distance, 0);
+    }
+
+    /**
+     * @return loaded item, or null when its page is not in memory
+     */
+    @Override
+    public T getItem(int position) {
+        final List<T> page = mPages.get(pageOf(position));
+        if (page == null) return null;
+
+        final int offset = position - pageOf(position) * mPageSize;
+        return offset < page.size() ? page.get(offset) : null;
+    }
+
+    public boolean isLoaded(int position) {
+        return getItem(position) != null;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public int getViewTypeCount() {
+        return 2;
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        return isLoaded(position) ? VIEW_TYPE_ITEM : VIEW_TYPE_PLACEHOLDER;
+    }
+
+    @Override
+    public final View getView(int position, View convertView, ViewGroup parent) {
+        loadAround(position);
+
+        final T item = getItem(position);
+        if (item == null) {
+            return getPlaceholderView(position, convertView, parent);
+        }
+        return getItemView(position, item, convertView, parent);
+    }
+
+    /**
+     * Make sure page of position and pages within prefetch distance from it are loaded or loading
+     */
+    private void loadAround(int position) {
+        mLastBoundPosition = position;
+        final int page = pageOf(position);
+        requestPage(page, 0);
+
+        final int ahead = pageOf(Math.min(position + mPrefetchDistance, mCount - 1));
+        if (ahead != page) requestPage(ahead, 0);
+        final int behind = pageOf(Math.max(position - mPrefetchDistance, 0));
+        if (behind != page) requestPage(behind, 0);
+    }
+
+    /**
+     * @param failures number of previous failed loads of page
+     */
+    private void requestPage(int page, int failures) {
+        if (mReleased || mLoading.get(page) != null || isPageComplete(page)) return;
+
+        final int start = page * mPageSize;
+        final PageLoad load = new PageLoad(page, start, Math.min(mPageSize, mCount - start), failures);
+        mLoading.put(page, load);
+        mExecutor.execute(load);
+    }
+
+    private boolean isPageComplete(int page) {
+        final int count = Math.min(mPageSize, mCount - page * mPageSize);
+        final List<T> loaded = mPages.get(page);
+        return count <= 0 || (loaded != null && loaded.size() >= count);
+    }
+
+    /**
+     * @return true when page is within prefetch distance from last bound position, so its items are probably attached
+     */
+    private boolean isNearBoundPosition(int page) {
+        final int first = pageOf(Math.max(mLastBoundPosition - mPrefetchDistance, 0));
+        final int last = pageOf(Math.min(mLastBoundPosition + mPrefetchDistance, mCount - 1));
+        return page >= first && page <= last;
+    }
+
+    private void onPageLoaded(PageLoad load) {
+        mLoading.remove(load.mPage);
+        final int loaded = load.mItems == null ? 0 : Math.min(load.mItems.size(), load.mCount);
+        if (loaded > 0) {
+            mPages.put(load.mPage, load.mItems);
+            trimPages();
+            //rebinds only attached children of page, others pick items up when they are bound
+            notifyItemRangeChanged(load.mStart, loaded);
+        }
+        if (loaded < load.mCount) {
+            scheduleRetry(load.mPage, load.mFailures + 1);
+        }
+    }
+
+    /**
+     * Load page again after delay, attached placeholders of page are not bound again by themselves
+     */
+    private void scheduleRetry(final int page, final int failures) {
+        if (mReleased) return;
+        final long delay = Math.min((long) RETRY_DELAY_MS << Math.min(failures - 1, 16), MAX_RETRY_DELAY_MS);
+        mMainHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                //window could have moved away meanwhile, page is then loaded when it is bound again
+                if (isNearBoundPosition(page)) requestPage(page, failures);
+            }
+        }, delay);
+    }
+
+    /**
+     * Drop pages farthest from last bound page until number of pages is within cap
+     */
+    private void trimPages() {
+        final int boundPage = pageOf(mLastBoundPosition);
+        while (mPages.size() > mMaxPages) {
+            int farthest = 0;
+            for (int i = 1; i < mPages.size(); i++) {
+                if (Math.abs(mPages.keyAt(i) - boundPage) > Math.abs(mPages.keyAt(farthest) - boundPage)) {
+                    farthest = i;
+                }
+            }
+            mPages.removeAt(farthest);
+        }
+    }
+
+    private void dropPage(int page) {
+        mPages.remove(page);
+        final PageLoad load = mLoading.get(page);
+        if (load != null) {
+            load.mCancelled = true;
+            mLoading.remove(page);
+        }
+    }
+
+    private int pageOf(int position) {
+        return position / mPageSize;
+    }
+
+    private class PageLoad implements Runnable {
+        final int mPage;
+        final int mStart;
+        final int mCount;
+        final int mFailures;
+        List<T> mItems;
+        volatile boolean mCancelled;
+
+        PageLoad(int page, int start, int count, int failures) {
+            mPage = page;
+            mStart = start;
+            mCount = count;
+            mFailures = failures;
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) return;
+            try {
+                mItems = loadPage(mStart, mCount);
+            } catch (Exception e) {
+                //page stays unloaded and is retried later
+                mItems = null;
+            }
+
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mCancelled && !mReleased) onPageLoaded(PageLoad.this);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package com.appl.library;
+
+/**
+ * Pool of item views waiting for reuse, kept separately for each view type of adapter. Views are held by strong
+ * references up to a fixed capacity per type, so they survive garbage collection between being scrolled out and
+ * being bound again. Storage is plain arrays allocated up front, neither {@link #put} nor {@link #get} allocates.
+ * <p/>
+ * Besides free views pool can hold a few views already bound to known adapter positions, for example views prepared
+ * ahead of time by prefetch. These are handed out only for their position, when they are evicted or invalidated they
+ * become ordinary free views of their type.
+ *
+ * @param <T> type of pooled views
+ */
+public class RecyclerPool<T> {
+    /**
+     * Default number of views kept for each view type
+     */
+    public static final int DEFAULT_MAX_PER_TYPE = 8;
+    /**
+     * Default number of views bound to position kept in pool
+     */
+    public static final int DEFAULT_MAX_BOUND = 4;
+
+    private Object[][] mScrap;
+    private int[]      mSizes;
+    private int        mMaxPerType;
+
+    private Object[] mBound;
+    private int[]    mBoundPositions;
+    private int[]    mBoundTypes;
+    private int      mBoundSize;
+
+    private int mHitCount;
+    private int mMissCount;
+
+    public RecyclerPool() {
+        this(DEFAULT_MAX_PER_TYPE);
+    }
+
+    public RecyclerPool(int maxPerType) {
+        if (maxPerType < 0) throw new IllegalArgumentException("Capacity must not be negative");
+        mMaxPerType = maxPerType;
+        setViewTypeCount(1);
+        setMaxBound(DEFAULT_MAX_BOUND);
+    }
+
+    /**
+     * Prepare pool for adapter with given number of view types. All pooled views are dropped.
+     *
+     * @param count value of {@link android.widget.Adapter#getViewTypeCount()}
+     */
+    public void setViewTypeCount(int count) {
+        if (count < 1) throw new IllegalArgumentException("Adapter must have at least one view type");
+        mScrap = new Object[count][mMaxPerType];
+        mSizes = new int[count];
+        mBoundSize = 0;
+        if (mBound != null) {
+            for (int i = 0; i < mBound.length; i++) {
+                mBound[i] = null;
+            }
+        }
+    }
+
+    public int getViewTypeCount() {
+        return mSizes.length;
+    }
+
+    /**
+     * Change number of views kept for each type. Views over new capacity are dropped.
+     */
+    public void setMaxPerType(int maxPerType) {
+        if (maxPerType < 0) throw new IllegalArgumentException("Capacity must not be negative");
+        if (maxPerType == mMaxPerType) return;
+
+        final int typeCount = mSizes.length;
+        for (int type = 0; type < typeCount; type++) {
+            final Object[] old = mScrap[type];
+            final Object[] scrap = new Object[maxPerType];
+            final int size = Math.min(mSizes[type], maxPerType);
+            System.arraycopy(old, 0, scrap, 0, size);
+            mScrap[type] = scrap;
+            mSizes[type] = size;
+        }
+        mMaxPerType = maxPerType;
+    }
+
+    public int getMaxPerType() {
+        return mMaxPerType;
+    }
+
+    /**
+     * Take view of given type out of pool
+     *
+     * @param viewType value of {@link android.widget.Adapter#getItemViewType(int)}
+     * @return pooled view or null if there is none of this type
+     */
+    @SuppressWarnings("unchecked")
+    public T get(int viewType) {
+        if (viewType < 0 || viewType >= mSizes.length) {
+            mMissCount++;
+            return null;
+        }
+
+        final int size = mSizes[viewType];
+        if (size == 0) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+
+        final Object[] scrap = mScrap[viewType];
+        final T item = (T) scrap[size - 1];
+        scrap[size - 1] = null;
+        mSizes[viewType] = size - 1;
+        return item;
+    }
+
+    /**
+     * Return view to pool
+     *
+     * @param viewType value of {@link android.widget.Adapter#getItemViewType(int)} for position view was bound to
+     * @return false if view was not pooled, because type is ignored or pool for this type is full
+     */
+    public boolean put(int viewType, T item) {
+        if (item == null || viewType < 0 || viewType >= mSizes.length) return false;
+
+        final int size = mSizes[viewType];
+        if (size >= mMaxPerType) return false;
+
+        mScrap[viewType][size] = item;
+        mSizes[viewType] = size + 1;
+        return true;
+    }
+
+    /**
+     * @return number of pooled views of given type
+     */
+    public int size(int viewType) {
+        if (viewType < 0 || viewType >= mSizes.length) return 0;
+        return mSizes[viewType];
+    }
+
+    /**
+     * Change number of views bound to position which pool keeps. Oldest bound views over new capacity become free views.
+     */
+    public void setMaxBound(int maxBound) {
+        if (maxBound < 0) throw new IllegalArgumentException("Capacity must not be negative");
+        if (mBound != null && maxBound == mBound.length) return;
+
+        while (mBoundSize > maxBound) {
+            evictBound(0);
+        }
+        final Object[] bound = new Object[maxBound];
+        final int[] positions = new int[maxBound];
+        final int[] types = new int[maxBound];
+        if (mBound != null) {
+            System.arraycopy(mBound, 0, bound, 0, mBoundSize);
+            System.arraycopy(mBoundPositions, 0, positions, 0, mBoundSize);
+            System.arraycopy(mBoundTypes, 0, types, 0, mBoundSize);
+        }
+        mBound = bound;
+        mBoundPositions = positions;
+        mBoundTypes = types;
+    }
+
+    public int getMaxBound() {
+        return mBound.length;
+    }
+
+    /**
+     * Store view which is already bound to given position. When pool of bound views is full, the oldest one becomes
+     * free view of its type.
+     *
+     * @return false if view was not pooled
+     */
+    public boolean putBound(int position, int viewType, T item) {
+        if (item == null || mBound.length == 0) return false;
+
+        final int existing = indexOfBound(position);
+        if (existing >= 0) {
+            evictBound(existing);
+        } else if (mBoundSize == mBound.length) {
+            evictBound(0);
+        }
+        mBound[mBoundSize] = item;
+        mBoundPositions[mBoundSize] = position;
+        mBoundTypes[mBoundSize] = viewType;
+        mBoundSize++;
+        return true;
+    }
+
+    /**
+     * Take view bound to given position out of pool
+     *
+     * @return bound view or null if there is none for this position
+     */
+    @SuppressWarnings("unchecked")
+    public T getBound(int position) {
+        final int index = indexOfBound(position);
+        if (index < 0) return null;
+
+        final T item = (T) mBound[index];
+        removeBound(index);
+        return item;
+    }
+
+    public boolean hasBound(int position) {
+        return indexOfBound(position) >= 0;
+    }
+
+    /**
+     * Positions of bound views are no longer valid, for example because adapter data changed. Bound views become
+     * free views of their type.
+     */
+    public void invalidateBound() {
+        while (mBoundSize > 0) {
+            evictBound(mBoundSize - 1);
+        }
+    }
+
+    /**
+     * Bound views of positions in given range become free views of their type, others stay bound
+     */
+    public void invalidateBound(int positionStart, int itemCount) {
+        invalidateBound(positionStart, itemCount, 0);
+    }
+
+    /**
+     * Bound views of positions in given range become free views of their type, others stay bound
+     *
+     * @param cycle when positive, positions of bound views are virtual positions of circular list with this number of
+     *              items, and range is matched in every cycle
+     */
+    public void invalidateBound(int positionStart, int itemCount, int cycle) {
+        for (int i = mBoundSize - 1; i >= 0; i--) {
+            int position = mBoundPositions[i];
+            if (cycle > 0) {
+                position %= cycle;
+                if (position < 0) position += cycle;
+            }
+            if (position >= positionStart && position < positionStart + itemCount) {
+                evictBound(i);
+            }
+        }
+    }
+
+    private int indexOfBound(int position) {
+        for (int i = 0; i < mBoundSize; i++) {
+            if (mBoundPositions[i] == position) return i;
+        }
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void evictBound(int index) {
+        final T item = (T) mBound[index];
+        final int viewType = mBoundTypes[index];
+        removeBound(index);
+        put(viewType, item);
+    }
+
+    private void removeBound(int index) {
+        final int moved = mBoundSize - index - 1;
+        if (moved > 0) {
+            System.arraycopy(mBound, index + 1, mBound, index, moved);
+            System.arraycopy(mBoundPositions, index + 1, mBoundPositions, index, moved);
+            System.arraycopy(mBoundTypes, index + 1, mBoundTypes, index, moved);
+        }
+        mBoundSize--;
+        mBound[mBoundSize] = null;
+    }
+
+    /**
+     * Drop pooled views so that at most given number of views of each type stays in pool. Capacity is not changed.
+     */
+    public void trim(int maxPerType) {
+        if (maxPerType < 0) maxPerType = 0;
+        final int typeCount = mSizes.length;
+        for (int type = 0; type < typeCount; type++) {
+            final Object[] scrap = mScrap[type];
+            for (int i = maxPerType; i < mSizes[type]; i++) {
+                scrap[i] = null;
+            }
+            if (mSizes[type] > maxPerType) mSizes[type] = maxPerType;
+        }
+    }
+
+    /**
+     * Drop all pooled views, including bound ones
+     */
+    public void clear() {
+        while (mBoundSize > 0) {
+            removeBound(mBoundSize - 1);
+        }
+        trim(0);
+    }
+
+    /**
+     * @return number of requests which were served from pool
+     */
+    public int getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return number of requests for which there was no free view of requested type, so new one had to be created
+     */
+    public int getMissCount() {
+        return mMissCount;
+    }
+
+    public void resetCounters() {
+        mHitCount = 0;
+        mMissCount = 0;
+    }
+}
@@ -0,0 +1,242 @@
+package com.appl.library;
+
+import android.os.Message;
+
+import org.robolectric.internal.Shadow;
+import org.robolectric.internal.ShadowConstants;
+import org.robolectric.internal.bytecode.ClassHandler;
+import org.robolectric.internal.bytecode.MethodSignature;
+import org.robolectric.internal.bytecode.RobolectricInternals;
+import org.robolectric.util.ReflectionHelpers;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Counts bytes which code of library allocates on thread that installed meter, apart from what framework allocates
+ * while library calls it. Under Robolectric every call into android classes goes through shadows, which box
+ * arguments and use reflection, so bytes counted for whole frame say nothing about carousel. Meter takes place of
+ * class handler of Robolectric and charges everything allocated inside of android calls to framework.
+ * <p/>
+ * Framework calls back into library through posted runnables, which meter recognizes itself, and through overridden
+ * methods of views, which have to be wrapped in {@link #enterApp()} and {@link #exitApp()}. Code which runs outside of
+ * both, like test itself, is not counted.
+ */
+class AllocationMeter implements ClassHandler {
+    private static final String HANDLE_CALLBACK = "android/os/Handler/handleCallback(Landroid/os/Message;)V";
+
+    private static final Class<?>[] PRIMITIVES = {boolean.class, byte.class, char.class, short.class, int.class,
+            long.class, float.class, double.class};
+
+    private static final int HARNESS   = 0;
+    private static final int APP       = 1;
+    private static final int FRAMEWORK = 2;
+
+    private final com.sun.management.ThreadMXBean mThreadBean;
+    private final Thread                          mThread = Thread.currentThread();
+    private final long                            mThreadId = mThread.getId();
+    private final HashMap<String, MeteredPlan>    mPlans = new HashMap<>();
+
+    private ClassHandler mDelegate;
+    private Plan         mPendingPlan;
+    private int[]        mModes = new int[256];
+    private int          mDepth;
+    private long         mLastBytes;
+    private long         mAppBytes;
+
+    AllocationMeter(com.sun.management.ThreadMXBean threadBean) {
+        mThreadBean = threadBean;
+    }
+
+    /**
+     * Put meter in front of class handler of Robolectric
+     */
+    void install() {
+        mDelegate = ReflectionHelpers.getStaticField(RobolectricInternals.class, "classHandler");
+        mLastBytes = mThreadBean.getThreadAllocatedBytes(mThreadId);
+        ReflectionHelpers.setStaticField(RobolectricInternals.class, "classHandler", this);
+    }
+
+    void uninstall() {
+        ReflectionHelpers.setStaticField(RobolectricInternals.class, "classHandler", mDelegate);
+    }
+
+    /**
+     * @return bytes allocated by library since meter was installed
+     */
+    long getAppBytes() {
+        charge();
+        return mAppBytes;
+    }
+
+    /**
+     * Library code, called by framework, starts
+     */
+    void enterApp() {
+        enter(APP);
+    }
+
+    void exitApp() {
+        exit();
+    }
+
+    private boolean isMetered() {
+        return Thread.currentThread() == mThread;
+    }
+
+    private void enter(int mode) {
+        charge();
+        if (++mDepth == mModes.length) {
+            mModes = Arrays.copyOf(mModes, mDepth * 2);
+        }
+        mModes[mDepth] = mode;
+    }
+
+    private void exit() {
+        charge();
+        mDepth--;
+    }
+
+    private void charge() {
+        final long bytes = mThreadBean.getThreadAllocatedBytes(mThreadId);
+        if (mModes[mDepth] == APP) {
+            mAppBytes += bytes - mLastBytes;
+        }
+        mLastBytes = bytes;
+    }
+
+    @Override
+    public void classInitializing(Class clazz) {
+        if (!isMetered()) {
+            mDelegate.classInitializing(clazz);
+            return;
+        }
+        enter(FRAMEWORK);
+        try {
+            mDelegate.classInitializing(clazz);
+        } finally {
+            exit();
+        }
+    }
+
+    @Override
+    public Object initializing(Object instance) {
+        if (!isMetered()) return mDelegate.initializing(instance);
+        enter(FRAMEWORK);
+        try {
+            return mDelegate.initializing(instance);
+        } finally {
+            exit();
+        }
+    }
+
+    /**
+     * Method of android class starts. Instead of plan of delegate, which is null for methods running their own code,
+     * meter returns plan of its own, so that it knows when method returns.
+     */
+    @Override
+    public Plan methodInvoked(String signature, boolean isStatic, Class<?> theClass) {
+        if (!isMetered()) return mDelegate.methodInvoked(signature, isStatic, theClass);
+        enter(FRAMEWORK);
+        try {
+            mPendingPlan = mDelegate.methodInvoked(signature, isStatic, theClass);
+            MeteredPlan plan = mPlans.get(signature);
+            if (plan == null) {
+                plan = new MeteredPlan(signature, isStatic, theClass);
+                mPlans.put(signature, plan);
+            }
+            return plan;
+        } catch (RuntimeException e) {
+            exit();
+            throw e;
+        }
+    }
+
+    @Override
+    public Object intercept(String signature, Object instance, Object[] params, Class theClass) throws Throwable {
+        if (!isMetered()) return mDelegate.intercept(signature, instance, params, theClass);
+        enter(FRAMEWORK);
+        try {
+            return mDelegate.intercept(signature, instance, params, theClass);
+        } finally {
+            exit();
+        }
+    }
+
+    @Override
+    public <T extends Throwable> T stripStackTrace(T throwable) {
+        return mDelegate.stripStackTrace(throwable);
+    }
+
+    private class MeteredPlan implements Plan {
+        private final String   mSignature;
+        private final boolean  mStatic;
+        private final Class<?> mClass;
+        private final boolean  mCallback;
+        private Method mDirectMethod;
+
+        MeteredPlan(String signature, boolean isStatic, Class<?> theClass) {
+            mSignature = signature;
+            mStatic = isStatic;
+            mClass = theClass;
+            mCallback = HANDLE_CALLBACK.equals(signature);
+        }
+
+        @Override
+        public Object run(Object instance, Object roboData, Object[] params) throws Throwable {
+            final Plan plan = mPendingPlan;
+            mPendingPlan = null;
+            try {
+                if (plan != null) {
+                    return plan.run(instance, roboData, params);
+                } else if (mCallback) {
+                    //runnable posted by library
+                    final Runnable callback = ((Message) params[0]).getCallback();
+                    enter(APP);
+                    try {
+                        callback.run();
+                    } finally {
+                        exit();
+                    }
+                    return null;
+                } else {
+                    return callDirectly(instance, params);
+                }
+            } finally {
+                exit();
+            }
+        }
+
+        private Object callDirectly(Object instance, Object[] params) throws Throwable {
+            if (mDirectMethod == null) {
+                final MethodSignature signature = MethodSignature.parse(mSignature);
+                final String name = "<init>".equals(signature.methodName)
+                        ? ShadowConstants.CONSTRUCTOR_METHOD_NAME : signature.methodName;
+                final Class<?>[] types = new Class<?>[signature.paramTypes.length];
+                for (int i = 0; i < types.length; i++) {
+                    types[i] = loadType(signature.paramTypes[i]);
+                }
+                mDirectMethod = mClass.getDeclaredMethod(Shadow.directMethodName(name), types);
+                mDirectMethod.setAccessible(true);
+            }
+            try {
+                return mDirectMethod.invoke(mStatic ? null : instance, params);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private Class<?> loadType(String name) throws ClassNotFoundException {
+            if (name.endsWith("[]")) {
+                return Array.newInstance(loadType(name.substring(0, name.length() - 2)), 0).getClass();
+            }
+            for (Class<?> primitive : PRIMITIVES) {
+                if (primitive.getName().equals(name)) return primitive;
+            }
+            return mClass.getClassLoader().loadClass(name);
+        }
+    }
+}
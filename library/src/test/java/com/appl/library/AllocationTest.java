@@ -0,0 +1,232 @@
+package com.appl.library;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.view.MotionEvent;
+import android.view.View;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Enforces that carousels do not allocate while they are flung. Real carousel is flung through {@link CarouselDriver}
+ * until pools, caches and lazily created objects are warm, and then every further fling, from down event until list
+ * comes to rest, has to allocate nothing. Bytes are read from thread counters of JVM by {@link AllocationMeter}, which
+ * leaves out what Robolectric allocates inside framework calls, so test is skipped on JVMs which don't provide them.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21, shadows = {ShadowFrameChoreographer.class, ShadowRealScroller.class,
+        ShadowScrollingViewGroup.class, ShadowFreshVelocityTracker.class})
+public class AllocationTest {
+    private static final int COUNT          = 100000;
+    private static final int X              = CarouselDriver.WIDTH / 2;
+    private static final int WARM_UP_FLINGS = 5;
+    /**
+     * Consecutive flings which must not allocate
+     */
+    private static final int FLINGS         = 4;
+    private static final int MAX_FLINGS     = 20;
+
+    private AllocationMeter mMeter;
+
+    @Before
+    public void setUp() {
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        mMeter = new AllocationMeter(threadBean);
+        mMeter.install();
+    }
+
+    @After
+    public void tearDown() {
+        if (mMeter != null) mMeter.uninstall();
+    }
+
+    @Test
+    public void carouselFlingDoesNotAllocate() {
+        checkFlings(new MeteredCarousel(RuntimeEnvironment.application, mMeter));
+    }
+
+    @Test
+    public void coverFlowFlingDoesNotAllocate() {
+        checkFlings(new MeteredCoverFlowCarousel(RuntimeEnvironment.application, mMeter));
+    }
+
+    private void checkFlings(Carousel carousel) {
+        final CarouselDriver driver = new CarouselDriver(carousel, new CountingAdapter(COUNT));
+        carousel.setSelection(COUNT / 2);
+        driver.settle();
+
+        //flings alternate direction, so list stays in the middle of adapter
+        final GestureScript up = new GestureScript().addDrag(0, X, 1000, 300, 80, 4);
+        final GestureScript down = new GestureScript().addDrag(0, X, 300, 1000, 80, 4);
+        for (int i = 0; i < WARM_UP_FLINGS; i++) {
+            driver.play(up);
+            driver.play(down);
+        }
+
+        //compiler of JVM may still replace code while flings run and allocate as it does so, such fling is repeated,
+        //allocation of carousel would show in every one of them
+        int clean = 0;
+        long allocated = 0;
+        for (int i = 0; i < MAX_FLINGS && clean < FLINGS; i++) {
+            driver.resetCounters();
+            final long before = mMeter.getAppBytes();
+            driver.play(i % 2 == 0 ? up : down);
+            allocated = mMeter.getAppBytes() - before;
+            assertTrue(driver.getScrolledItems() > 0);
+            clean = allocated == 0 ? clean + 1 : 0;
+        }
+        assertEquals(carousel.getClass().getSimpleName() + " allocated during fling", 0, allocated);
+    }
+
+    /**
+     * Reports methods, which framework calls back while drawing and dispatching touches, as code of library
+     */
+    private static class MeteredCarousel extends Carousel {
+        private final AllocationMeter mMeter;
+
+        MeteredCarousel(Context context, AllocationMeter meter) {
+            super(context);
+            mMeter = meter;
+        }
+
+        @Override
+        protected void dispatchDraw(Canvas canvas) {
+            mMeter.enterApp();
+            try {
+                super.dispatchDraw(canvas);
+            } finally {
+                mMeter.exitApp();
+            }
+        }
+
+        @Override
+        protected int getChildDrawingOrder(int childCount, int i) {
+            mMeter.enterApp();
+            try {
+                return super.getChildDrawingOrder(childCount, i);
+            } finally {
+                mMeter.exitApp();
+            }
+        }
+
+        @Override
+        public boolean dispatchTouchEvent(MotionEvent ev) {
+            mMeter.enterApp();
+            try {
+                return super.dispatchTouchEvent(ev);
+            } finally {
+                mMeter.exitApp();
+            }
+        }
+
+        @Override
+        public boolean onInterceptTouchEvent(MotionEvent ev) {
+            mMeter.enterApp();
+            try {
+                return super.onInterceptTouchEvent(ev);
+            } finally {
+                mMeter.exitApp();
+            }
+        }
+
+        @Override
+        public boolean onTouchEvent(MotionEvent event) {
+            mMeter.enterApp();
+            try {
+                return super.onTouchEvent(event);
+            } finally {
+                mMeter.exitApp();
+            }
+        }
+    }
+
+    /**
+     * Same as {@link MeteredCarousel}, and drawing of children with reflections on top of it
+     */
+    private static class MeteredCoverFlowCarousel extends CoverFlowCarousel {
+        private final AllocationMeter mMeter;
+
+        MeteredCoverFlowCarousel(Context context, AllocationMeter meter) {
+            super(context);
+            mMeter = meter;
+        }
+
+        @Override
+        protected void dispatchDraw(Canvas canvas) {
+            mMeter.enterApp();
+            try {
+                super.dispatchDraw(canvas);
+            } finally {
+                mMeter.exitApp();
+            }
+        }
+
+        @Override
+        protected boolean drawChild(Canvas canvas, View child, long drawingTime) {
+            mMeter.enterApp();
+            try {
+                return super.drawChild(canvas, child, drawingTime);
+            } finally {
+                mMeter.exitApp();
+            }
+        }
+
+        @Override
+        protected int getChildDrawingOrder(int childCount, int i) {
+            mMeter.enterApp();
+            try {
+                return super.getChildDrawingOrder(childCount, i);
+            } finally {
+                mMeter.exitApp();
+            }
+        }
+
+        @Override
+        public boolean dispatchTouchEvent(MotionEvent ev) {
+            mMeter.enterApp();
+            try {
+                return super.dispatchTouchEvent(ev);
+            } finally {
+                mMeter.exitApp();
+            }
+        }
+
+        @Override
+        public boolean onInterceptTouchEvent(MotionEvent ev) {
+            mMeter.enterApp();
+            try {
+                return super.onInterceptTouchEvent(ev);
+            } finally {
+                mMeter.exitApp();
+            }
+        }
+
+        @Override
+        public boolean onTouchEvent(MotionEvent event) {
+            mMeter.enterApp();
+            try {
+                return super.onTouchEvent(event);
+            } finally {
+                mMeter.exitApp();
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.appl.library;
+
+import android.app.Activity;
+import android.graphics.Canvas;
+import android.os.SystemClock;
+import android.view.View;
+import android.view.ViewGroup;
+
+import org.robolectric.Robolectric;
+import org.robolectric.util.Scheduler;
+
+/**
+ * Attaches carousel to activity and runs it frame by frame on clock of main looper. Tests using it have to install
+ * {@link ShadowFrameChoreographer}, so that animation callbacks wait for next frame, {@link ShadowRealScroller},
+ * {@link ShadowScrollingViewGroup} and {@link ShadowFreshVelocityTracker}. Every frame is drawn, so that carousel
+ * reports its metrics and schedules prefetch as it does on device, and invariants are checked after every frame and
+ * every step of replayed script.
+ */
+class CarouselDriver {
+    static final int WIDTH    = 720;
+    static final int HEIGHT   = 1280;
+    static final int FRAME_MS = 16;
+    /**
+     * Frames after which list which is still moving fails the test
+     */
+    private static final int MAX_SETTLE_FRAMES = 2000;
+
+    private final Carousel        mCarousel;
+    private final CountingAdapter mAdapter;
+    private final Scheduler       mScheduler = Robolectric.getForegroundThreadScheduler();
+    private final Canvas          mCanvas    = new Canvas();
+
+    private int mLastScrollY;
+    private int mScrolledPixels;
+    private int mFrameCount;
+    private int mMaxChildCount;
+    private int mMaxFrameBinds;
+    private int mMetricsFrameCount;
+    private int mMetricsViewsCreated;
+    private int mMetricsViewsRecycled;
+
+    CarouselDriver(Carousel carousel, CountingAdapter adapter) {
+        mCarousel = carousel;
+        mAdapter = adapter;
+
+        carousel.setOnFrameMetricsListener(new Carousel.OnFrameMetricsListener() {
+            @Override
+            public void onFrameMetrics(CarouselMetrics.Frame frame) {
+                mMetricsFrameCount++;
+                mMetricsViewsCreated += frame.getViewsCreated();
+                mMetricsViewsRecycled += frame.getViewsRecycled();
+                if (frame.getChildCount() != mCarousel.getChildCount()) {
+                    throw new AssertionError("Frame reports " + frame.getChildCount() + " children, "
+                            + mCarousel.getChildCount() + " are attached");
+                }
+            }
+        });
+        carousel.setAdapter(adapter);
+        final Activity activity = Robolectric.setupActivity(Activity.class);
+        activity.setContentView(carousel, new ViewGroup.LayoutParams(WIDTH, HEIGHT));
+        carousel.measure(exactly(WIDTH), exactly(HEIGHT));
+        carousel.layout(0, 0, WIDTH, HEIGHT);
+        frame();
+        resetCounters();
+    }
+
+    /**
+     * Advance clock by one frame, running animation callbacks, and draw carousel
+     */
+    void frame() {
+        final int bindsBefore = mAdapter.getBindCount();
+        mScheduler.advanceBy(FRAME_MS);
+        //draw of shadow view does not dispatch to children
+        mCarousel.dispatchDraw(mCanvas);
+        mFrameCount++;
+
+        final int scrollY = mCarousel.getScrollY();
+        final int scrolled = Math.abs(scrollY - mLastScrollY);
+        mLastScrollY = scrollY;
+        mScrolledPixels += scrolled;
+
+        final int binds = mAdapter.getBindCount() - bindsBefore;
+        mMaxFrameBinds = Math.max(mMaxFrameBinds, binds - scrolledItems(scrolled));
+        mMaxChildCount = Math.max(mMaxChildCount, mCarousel.getChildCount());
+        CarouselInvariants.check(mCarousel);
+    }
+
+    /**
+     * Dispatch steps of script at their times, with frames running in between, and let list come to rest
+     */
+    void play(GestureScript script) {
+        final long startTime = SystemClock.uptimeMillis();
+        for (int i = 0; i < script.getStepCount(); i++) {
+            final long stepTime = startTime + script.getStepTime(i);
+            while (SystemClock.uptimeMillis() + FRAME_MS <= stepTime) {
+                frame();
+            }
+            if (SystemClock.uptimeMillis() < stepTime) {
+                mScheduler.advanceBy(stepTime - SystemClock.uptimeMillis());
+            }
+            script.dispatchStep(i, mCarousel, startTime);
+            CarouselInvariants.check(mCarousel);
+        }
+        settle();
+    }
+
+    /**
+     * Run frames until running fling or alignment ends
+     */
+    void settle() {
+        for (int i = 0; i < MAX_SETTLE_FRAMES; i++) {
+            frame();
+            if (!mCarousel.isMoving()) return;
+        }
+        throw new AssertionError("Carousel still moves after " + MAX_SETTLE_FRAMES + " frames");
+    }
+
+    void resetCounters() {
+        mScrolledPixels = 0;
+        mFrameCount = 0;
+        mMaxChildCount = mCarousel.getChildCount();
+        mMaxFrameBinds = 0;
+        mMetricsFrameCount = 0;
+        mMetricsViewsCreated = 0;
+        mMetricsViewsRecycled = 0;
+        mLastScrollY = mCarousel.getScrollY();
+    }
+
+    /**
+     * @return number of items which passed over any fixed line of widget since counters were reset
+     */
+    int getScrolledItems() {
+        return scrolledItems(mScrolledPixels);
+    }
+
+    private int scrolledItems(int pixels) {
+        final int pitch = Math.max(mCarousel.getItemPitch(), 1);
+        return (pixels + pitch - 1) / pitch;
+    }
+
+    int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * @return highest number of children attached after any frame
+     */
+    int getMaxChildCount() {
+        return mMaxChildCount;
+    }
+
+    /**
+     * @return highest number of binds in one frame beyond items which scrolled in that frame
+     */
+    int getMaxExtraFrameBinds() {
+        return mMaxFrameBinds;
+    }
+
+    /**
+     * @return number of frames reported by metrics of carousel
+     */
+    int getMetricsFrameCount() {
+        return mMetricsFrameCount;
+    }
+
+    /**
+     * @return views created in reported frames, counted by recycler of carousel
+     */
+    int getMetricsViewsCreated() {
+        return mMetricsViewsCreated;
+    }
+
+    /**
+     * @return views reused in reported frames, counted by recycler of carousel
+     */
+    int getMetricsViewsRecycled() {
+        return mMetricsViewsRecycled;
+    }
+
+    private static int exactly(int size) {
+        return View.MeasureSpec.makeMeasureSpec(size, View.MeasureSpec.EXACTLY);
+    }
+}
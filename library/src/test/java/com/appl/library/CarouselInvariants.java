@@ -0,0 +1,79 @@
+package com.appl.library;
+
+/**
+ * Checks that attached children of carousel match positions it keeps for them. Walks all children, so it is run by
+ * tests after every frame and every dispatched step.
+ */
+final class CarouselInvariants {
+
+    private CarouselInvariants() {
+    }
+
+    /**
+     * @throws AssertionError describing first broken invariant
+     */
+    static void check(Carousel carousel) {
+        final int childCount = carousel.getChildCount();
+        final int itemCount = carousel.getAdapter() == null ? 0 : carousel.getAdapter().getCount();
+        if (itemCount == 0) {
+            if (childCount != 0) fail(childCount + " children attached without items");
+            return;
+        }
+        if (childCount == 0) return;
+
+        final int first = carousel.getFirstAttachedPosition();
+        final int last = carousel.getLastAttachedPosition();
+        final int selection = carousel.getSelectedPosition();
+        if (last - first + 1 != childCount) {
+            fail("Attached positions " + first + ".." + last + " do not match " + childCount + " children");
+        }
+        if (!carousel.isCircular() && (first < 0 || last >= itemCount)) {
+            fail("Attached positions " + first + ".." + last + " out of " + itemCount + " items");
+        }
+        if (selection < first || selection > last) {
+            fail("Selection " + selection + " is not attached, attached positions " + first + ".." + last);
+        }
+        if (carousel.getSelection() != floorMod(selection, itemCount)) {
+            fail("Selection " + carousel.getSelection() + " does not match virtual position " + selection);
+        }
+
+        //visible items are attached, and selected one is among them
+        final int firstVisible = carousel.getFirstVisiblePosition();
+        final int lastVisible = carousel.getLastVisiblePosition();
+        if (!carousel.isCircular()
+                && (firstVisible < first || lastVisible > last || carousel.getSelection() < firstVisible
+                || carousel.getSelection() > lastVisible)) {
+            fail("Visible positions " + firstVisible + ".." + lastVisible + " with selection " + carousel.getSelection()
+                    + " do not fit attached positions " + first + ".." + last);
+        }
+
+        //position model relies on uniform pitch
+        final int pitch = carousel.getItemPitch();
+        for (int i = 1; i < childCount; i++) {
+            final int distance = carousel.getChildCenter(i) - carousel.getChildCenter(i - 1);
+            if (distance != pitch) {
+                fail("Children " + (i - 1) + " and " + i + " are " + distance + " px apart, pitch is " + pitch);
+            }
+        }
+
+        if (childCount > getMaxChildCount(carousel)) {
+            fail(childCount + " children attached, at most " + getMaxChildCount(carousel) + " fit in window");
+        }
+    }
+
+    /**
+     * @return number of children which fit in window plus margins on both sides, and one partially visible item at
+     * each end
+     */
+    static int getMaxChildCount(Carousel carousel) {
+        return (carousel.getHeight() + 2 * carousel.getOffscreenMargin()) / Math.max(carousel.getItemPitch(), 1) + 2;
+    }
+
+    private static int floorMod(int x, int y) {
+        return ((x % y) + y) % y;
+    }
+
+    private static void fail(String message) {
+        throw new AssertionError(message);
+    }
+}
@@ -0,0 +1,197 @@
+package com.appl.library;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays scripted drags, flings, reversals and selection jumps into carousels with adapters from ten to a million
+ * items, and checks budgets of work carousel does for them: binds per scrolled item, created versus recycled views,
+ * attached children and binds in single frame. Layout invariants are checked after every frame.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21, shadows = {ShadowFrameChoreographer.class, ShadowRealScroller.class,
+        ShadowScrollingViewGroup.class, ShadowFreshVelocityTracker.class})
+public class CarouselScrollTest {
+    private static final int[] COUNTS = {10, 1000, 1000000};
+    private static final int   X      = CarouselDriver.WIDTH / 2;
+    /**
+     * Views carousel may bind ahead of window during one pass in one direction
+     */
+    private static final int PREFETCH = RecyclerPool.DEFAULT_MAX_BOUND;
+
+    @Test
+    public void dragsAndFlingsBindOnlyScrolledItems() {
+        for (int count : COUNTS) {
+            checkScrolling(new Carousel(RuntimeEnvironment.application), count, false);
+            checkScrolling(new CoverFlowCarousel(RuntimeEnvironment.application), count, false);
+        }
+        checkScrolling(new Carousel(RuntimeEnvironment.application), 1000, true);
+        checkScrolling(new CoverFlowCarousel(RuntimeEnvironment.application), 1000, true);
+    }
+
+    private void checkScrolling(Carousel carousel, int count, boolean circular) {
+        final CountingAdapter adapter = new CountingAdapter(count);
+        carousel.setCircular(circular);
+        final CarouselDriver driver = new CarouselDriver(carousel, adapter);
+        carousel.setSelection(count / 2);
+        driver.settle();
+        driver.resetCounters();
+        final int bindsBefore = adapter.getBindCount();
+        final int createdBefore = adapter.getCreateCount();
+
+        //slow drag, fling, fling back, and fling reversed by new fling before it ends
+        final GestureScript script = new GestureScript()
+                .addDrag(0, X, 1000, 300, 700, 40)
+                .addDrag(1500, X, 900, 400, 80, 4)
+                .addDrag(4000, X, 300, 900, 80, 4)
+                .addDrag(4300, X, 900, 300, 80, 4);
+        final int reversals = 3;
+        driver.play(script);
+
+        final String name = carousel.getClass().getSimpleName() + " of " + count + (circular ? " circular" : "");
+        final int binds = adapter.getBindCount() - bindsBefore;
+        final int created = adapter.getCreateCount() - createdBefore;
+        final int maxChildren = CarouselInvariants.getMaxChildCount(carousel);
+
+        //every scrolled item is bound once, prefetched items can be wasted when direction changes
+        assertTrue(name + ": " + binds + " binds for " + driver.getScrolledItems() + " scrolled items",
+                binds <= driver.getScrolledItems() + (reversals + 1) * PREFETCH + 2);
+        assertTrue(name + ": " + driver.getMaxExtraFrameBinds() + " binds in one frame beyond scrolled items",
+                driver.getMaxExtraFrameBinds() <= PREFETCH + 1);
+        assertTrue(name + ": " + created + " views created while scrolling", created <= PREFETCH + 2);
+        assertTrue(name + ": " + driver.getMaxChildCount() + " children attached, at most " + maxChildren + " fit",
+                driver.getMaxChildCount() <= maxChildren);
+
+        //metrics see the same frames and recycler traffic
+        assertEquals(name, driver.getFrameCount(), driver.getMetricsFrameCount());
+        assertTrue(name + ": " + driver.getMetricsViewsCreated() + " views created by recycler metrics",
+                driver.getMetricsViewsCreated() <= PREFETCH + 2);
+        if (driver.getScrolledItems() > maxChildren) {
+            assertTrue(name + ": no view reused after " + driver.getScrolledItems() + " scrolled items",
+                    driver.getMetricsViewsRecycled() > 0);
+        }
+        assertFalse(name, carousel.isMoving());
+    }
+
+    @Test
+    public void selectionJumpsCostDoesNotDependOnDistance() {
+        final int count = 1000000;
+        final int[] targets = {0, count - 1, count / 2, 3, count - 10, 1};
+        checkJumps(new Carousel(RuntimeEnvironment.application), count, false, targets);
+        checkJumps(new CoverFlowCarousel(RuntimeEnvironment.application), count, false, targets);
+        checkJumps(new Carousel(RuntimeEnvironment.application), count, true, targets);
+    }
+
+    private void checkJumps(Carousel carousel, int count, boolean circular, int[] targets) {
+        final CountingAdapter adapter = new CountingAdapter(count);
+        carousel.setCircular(circular);
+        final CarouselDriver driver = new CarouselDriver(carousel, adapter);
+        final int maxChildren = CarouselInvariants.getMaxChildCount(carousel);
+        final String name = carousel.getClass().getSimpleName() + (circular ? " circular" : "");
+
+        for (int target : targets) {
+            final int bindsBefore = adapter.getBindCount();
+            final int createdBefore = adapter.getCreateCount();
+            driver.play(new GestureScript().addSelection(0, target));
+
+            final int binds = adapter.getBindCount() - bindsBefore;
+            final int created = adapter.getCreateCount() - createdBefore;
+            assertEquals(name, target, carousel.getSelection());
+            assertTrue(name + ": " + binds + " binds for jump to " + target, binds <= maxChildren + PREFETCH);
+            //recycler keeps only part of the old window, rest has to be created again
+            assertTrue(name + ": " + created + " views created for jump to " + target, created <= maxChildren);
+        }
+    }
+
+    @Test
+    public void smallAdapterStopsAtEnds() {
+        //short enough for drag and fling at maximum velocity to cross it
+        final int count = 5;
+        final Carousel carousel = new Carousel(RuntimeEnvironment.application);
+        final CountingAdapter adapter = new CountingAdapter(count);
+        final CarouselDriver driver = new CarouselDriver(carousel, adapter);
+
+        //flings much longer than list in both directions
+        driver.play(new GestureScript().addDrag(0, X, 1200, 100, 50, 3));
+        final int afterFirst = carousel.getSelection();
+        driver.play(new GestureScript().addDrag(0, X, 100, 1200, 50, 3));
+        final int afterSecond = carousel.getSelection();
+
+        assertTrue(afterFirst == 0 || afterFirst == count - 1);
+        assertEquals(count - 1 - afterFirst, afterSecond);
+        assertTrue(carousel.getChildCount() <= count);
+        assertTrue(adapter.getCreateCount() <= count + PREFETCH);
+    }
+
+    @Test
+    public void movedSelectedItemStaysSelected() {
+        final Carousel carousel = new Carousel(RuntimeEnvironment.application);
+        final CountingAdapter adapter = new CountingAdapter(100);
+        final CarouselDriver driver = new CarouselDriver(carousel, adapter);
+        carousel.setSelection(50);
+        driver.settle();
+
+        //selected item moves with its block, then blocks moved over it shift it back and forth
+        adapter.notifyItemRangeMoved(49, 60, 3);
+        assertEquals(61, carousel.getSelection());
+        adapter.notifyItemRangeMoved(10, 70, 5);
+        assertEquals(56, carousel.getSelection());
+        adapter.notifyItemRangeMoved(80, 0, 5);
+        assertEquals(61, carousel.getSelection());
+        adapter.notifyItemRangeMoved(0, 90, 5);
+        assertEquals(56, carousel.getSelection());
+
+        driver.settle();
+        final int center = carousel.getScrollY() + CarouselDriver.HEIGHT / 2;
+        assertEquals(center, carousel.getChildCenter(carousel.getSelectedView()));
+    }
+
+    @Test
+    public void scriptFromBugReportReplaysToRest() {
+        final Carousel carousel = new CoverFlowCarousel(RuntimeEnvironment.application);
+        carousel.setCircular(true);
+        final CountingAdapter adapter = new CountingAdapter(1000);
+        final CarouselDriver driver = new CarouselDriver(carousel, adapter);
+
+        driver.play(GestureScript.parse(""
+                + "# fling interrupted by touch, then jump across wrap point\n"
+                + "0 touch 0 360.0 1000.0\n"
+                + "20 touch 2 360.0 900.0\n"
+                + "40 touch 2 360.0 700.0\n"
+                + "60 touch 1 360.0 500.0\n"
+                + "200 touch 0 360.0 600.0\n"
+                + "300 touch 1 360.0 600.0\n"
+                + "400 select 998\n"
+                + "500 touch 0 360.0 300.0\n"
+                + "540 touch 2 360.0 500.0\n"
+                + "580 touch 1 360.0 800.0\n"));
+
+        final int center = carousel.getScrollY() + CarouselDriver.HEIGHT / 2;
+        assertEquals(center, carousel.getChildCenter(carousel.getSelectedView()));
+    }
+
+    @Test
+    public void recordedGestureReplaysAsSameScript() {
+        final Carousel carousel = new Carousel(RuntimeEnvironment.application);
+        final CarouselDriver driver = new CarouselDriver(carousel, new CountingAdapter(100));
+        final GestureRecorder recorder = new GestureRecorder();
+        carousel.setGestureRecorder(recorder);
+
+        final GestureScript script = new GestureScript()
+                .addDrag(0, X, 1000, 400, 80, 4)
+                .addSelection(1000, 20)
+                .addDrag(1200, X, 300, 900, 200, 6);
+        driver.play(script);
+        carousel.setGestureRecorder(null);
+
+        assertEquals(script.getStepCount(), recorder.getStepCount());
+        assertEquals(script.toString(), GestureScript.parse(recorder.toString()).toString());
+    }
+}
@@ -0,0 +1,56 @@
+package com.appl.library;
+
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * Adapter of given number of plain views, which counts how often carousel binds and creates them
+ */
+class CountingAdapter extends CarouselAdapter {
+    private final int mCount;
+    private int mBindCount;
+    private int mCreateCount;
+
+    CountingAdapter(int count) {
+        mCount = count;
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public Object getItem(int position) {
+        return position;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        mBindCount++;
+        if (convertView == null) {
+            mCreateCount++;
+            convertView = new View(parent.getContext());
+        }
+        return convertView;
+    }
+
+    /**
+     * @return number of getView calls
+     */
+    int getBindCount() {
+        return mBindCount;
+    }
+
+    /**
+     * @return number of getView calls without view to recycle
+     */
+    int getCreateCount() {
+        return mCreateCount;
+    }
+}
@@ -0,0 +1,119 @@
+package com.appl.library;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares table driven transform with evaluation of the same geometry by {@link Math}, as CoverFlowCarousel computed
+ * it before. Checks tolerances documented on {@link CoverFlowTransform}.
+ */
+public class CoverFlowTransformTest {
+    private static final int HEIGHT = 1280;
+
+    @Test
+    public void matchesReferenceWithinDocumentedTolerance() {
+        checkAgainstReference(HEIGHT, 0, 240, 0.5f);
+        checkAgainstReference(HEIGHT, 7777, 240, 0.5f);
+        checkAgainstReference(800, -333, 200, 1f);
+        checkAgainstReference(1921, 12345, 360, 0.7f);
+    }
+
+    @Test
+    public void centerChildIsNotRotatedAndFullyScaled() {
+        final CoverFlowTransform transform = new CoverFlowTransform();
+        transform.beginFrame(HEIGHT, 500, 240, 0.5f);
+        transform.compute(500 + HEIGHT / 2);
+
+        assertEquals(0f, transform.mRotation, 0f);
+        assertEquals(0f, transform.mTranslation, 0f);
+        assertEquals(transform.mMaxScaleFactor, transform.mScale, 1e-6f);
+    }
+
+    @Test
+    public void childrenBeyondRadiusAreClampedToEndOfCircle() {
+        final CoverFlowTransform transform = new CoverFlowTransform();
+        transform.beginFrame(HEIGHT, 0, 240, 0.5f);
+        final int half = HEIGHT / 2;
+
+        transform.compute(half + (int) (transform.mRadius * half));
+        final float rotation = transform.mRotation;
+        final float scale = transform.mScale;
+        transform.compute(half + (int) (3 * transform.mRadius * half));
+
+        assertEquals(rotation, transform.mRotation, 1e-4f);
+        assertEquals(scale, transform.mScale, 1e-4f);
+    }
+
+    /**
+     * Sweep child centers over whole circle, one pixel apart
+     */
+    private static void checkAgainstReference(int height, int scrollY, int childHeight, float spacing) {
+        final CoverFlowTransform transform = new CoverFlowTransform();
+        transform.beginFrame(height, scrollY, childHeight, spacing);
+        final Reference reference = new Reference(transform, height, scrollY, childHeight, spacing);
+
+        final int half = height / 2;
+        final int reach = (int) (transform.mRadius * half);
+        for (int c = scrollY + half - reach; c <= scrollY + half + reach; c++) {
+            transform.compute(c);
+            reference.compute(c);
+
+            final double y = Math.abs(reference.mY);
+            final String where = "center " + c + ", y " + reference.mY;
+            final double rotationTolerance = y < 0.9 ? 0.001 : 0.1;
+            final double sizeTolerance = y < 0.9 ? 0.00001 : 0.002;
+            assertEquals("rotation at " + where, reference.mRotation, transform.mRotation, rotationTolerance);
+            assertEquals("scale at " + where, reference.mScale, transform.mScale, sizeTolerance);
+            assertEquals("translation at " + where, reference.mTranslation / childHeight,
+                    transform.mTranslation / childHeight, sizeTolerance);
+        }
+    }
+
+    /**
+     * Formulas of CoverFlowCarousel before transform engine, evaluated in double precision
+     */
+    private static class Reference {
+        private final CoverFlowTransform mParams;
+        private final int   mHeight;
+        private final int   mScrollY;
+        private final int   mChildHeight;
+        private final float mSpacing;
+
+        double mY;
+        double mRotation;
+        double mTranslation;
+        double mScale;
+
+        Reference(CoverFlowTransform params, int height, int scrollY, int childHeight, float spacing) {
+            mParams = params;
+            mHeight = height;
+            mScrollY = scrollY;
+            mChildHeight = childHeight;
+            mSpacing = spacing;
+        }
+
+        void compute(int childCenter) {
+            final CoverFlowTransform p = mParams;
+            final int half = mHeight / 2;
+            final double position = (childCenter - (mScrollY + half)) / (double) half;
+            final double multiplier = p.mTuningWidgetSize / (double) mHeight;
+
+            mY = Math.max(-1.0, Math.min(1.0, position / p.mRadius));
+            final double angleOnCircle = Math.acos(mY) / Math.PI * 180.0 - 90.0;
+            final double spacingOnCircle = Math.sin(Math.acos(mY));
+
+            mRotation = p.mMaxRotationAngle * clamp(position, p.mRotationThreshold * multiplier) - angleOnCircle;
+            mTranslation = mChildHeight * p.mAdjustPositionMultiplier * mSpacing
+                    * clamp(position, p.mAdjustPositionThreshold * multiplier) * spacingOnCircle;
+            mScale = 1 + (p.mMaxScaleFactor - 1) * (1 - Math.abs(clamp(position, p.mScalingThreshold * multiplier)))
+                    - p.mPerspectiveMultiplier * (1 - spacingOnCircle);
+        }
+
+        private static double clamp(double position, double threshold) {
+            if (position < -threshold) return -1;
+            if (position > threshold) return 1;
+            return position / threshold;
+        }
+    }
+}
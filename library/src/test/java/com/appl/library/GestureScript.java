@@ -0,0 +1,173 @@
+package com.appl.library;
+
+import android.os.SystemClock;
+import android.view.MotionEvent;
+
+import java.util.Arrays;
+
+/**
+ * Sequence of touch events and selection jumps which tests replay into {@link Carousel}. Script has the plain text form
+ * written by {@link GestureRecorder}, so gesture recorded on device and attached to bug report can be pasted into test
+ * as it is.
+ * <p/>
+ * Times of steps are in milliseconds relative to first step. Coordinates are relative to carousel.
+ */
+public class GestureScript {
+    /**
+     * Touch event, a = action, x and y = coordinates
+     */
+    public static final int STEP_TOUCH     = 0;
+    /**
+     * Call of {@link Carousel#setSelection(int)}, a = adapter position
+     */
+    public static final int STEP_SELECTION = 1;
+
+    private long[]  mTimes   = new long[16];
+    private int[]   mTypes   = new int[16];
+    private int[]   mArgs    = new int[16];
+    private float[] mXs      = new float[16];
+    private float[] mYs      = new float[16];
+    private int     mSize;
+
+    public GestureScript addTouch(long time, int action, float x, float y) {
+        add(time, STEP_TOUCH, action, x, y);
+        return this;
+    }
+
+    public GestureScript addSelection(long time, int position) {
+        add(time, STEP_SELECTION, position, 0, 0);
+        return this;
+    }
+
+    /**
+     * Append complete gesture from down to up with moves at regular intervals. Short duration makes fling, long one
+     * slow drag.
+     *
+     * @param startTime time of down event
+     * @param duration  time from down to up event
+     * @param moves     number of move events between down and up
+     */
+    public GestureScript addDrag(long startTime, float x, float fromY, float toY, long duration, int moves) {
+        add(startTime, STEP_TOUCH, MotionEvent.ACTION_DOWN, x, fromY);
+        for (int i = 1; i <= moves; i++) {
+            final float fraction = i / (float) (moves + 1);
+            add(startTime + (long) (duration * fraction), STEP_TOUCH, MotionEvent.ACTION_MOVE, x,
+                    fromY + (toY - fromY) * fraction);
+        }
+        add(startTime + duration, STEP_TOUCH, MotionEvent.ACTION_UP, x, toY);
+        return this;
+    }
+
+    private void add(long time, int type, int arg, float x, float y) {
+        if (mSize == mTimes.length) {
+            final int capacity = mSize * 2;
+            mTimes = Arrays.copyOf(mTimes, capacity);
+            mTypes = Arrays.copyOf(mTypes, capacity);
+            mArgs = Arrays.copyOf(mArgs, capacity);
+            mXs = Arrays.copyOf(mXs, capacity);
+            mYs = Arrays.copyOf(mYs, capacity);
+        }
+        mTimes[mSize] = time;
+        mTypes[mSize] = type;
+        mArgs[mSize] = arg;
+        mXs[mSize] = x;
+        mYs[mSize] = y;
+        mSize++;
+    }
+
+    public int getStepCount() {
+        return mSize;
+    }
+
+    /**
+     * @return time of step relative to first step
+     */
+    public long getStepTime(int index) {
+        return mTimes[index];
+    }
+
+    public int getStepType(int index) {
+        return mTypes[index];
+    }
+
+    public void clear() {
+        mSize = 0;
+    }
+
+    /**
+     * Dispatch one step into carousel. Caller controls time between steps by advancing clock of test looper to
+     * startTime + {@link #getStepTime(int)} before each step, so that animation frames run in between.
+     *
+     * @param startTime uptime of first step, used as down time of events
+     */
+    public void dispatchStep(int index, Carousel carousel, long startTime) {
+        if (mTypes[index] == STEP_SELECTION) {
+            carousel.setSelection(mArgs[index]);
+            return;
+        }
+
+        final MotionEvent ev = MotionEvent.obtain(startTime, startTime + mTimes[index], mArgs[index], mXs[index], mYs[index], 0);
+        carousel.dispatchTouchEvent(ev);
+        ev.recycle();
+    }
+
+    /**
+     * Dispatch all steps at once. Events keep their recorded times, so velocity of flings is preserved, but no frames
+     * run during gesture.
+     */
+    public void replay(Carousel carousel) {
+        final long startTime = SystemClock.uptimeMillis();
+        for (int i = 0; i < mSize; i++) {
+            dispatchStep(i, carousel, startTime);
+        }
+    }
+
+    /**
+     * @return script in text form, readable by {@link #parse(String)}
+     */
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder(mSize * 24);
+        for (int i = 0; i < mSize; i++) {
+            sb.append(mTimes[i]).append(' ');
+            if (mTypes[i] == STEP_SELECTION) {
+                sb.append(GestureRecorder.STEP_SELECTION).append(' ').append(mArgs[i]);
+            } else {
+                sb.append(GestureRecorder.STEP_TOUCH).append(' ').append(mArgs[i]).append(' ').append(mXs[i]).append(' ')
+                        .append(mYs[i]);
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param text script in form written by {@link #toString()}, empty lines and lines starting with # are skipped
+     */
+    public static GestureScript parse(String text) {
+        final GestureScript script = new GestureScript();
+        final String[] lines = text.split("\n");
+        for (int n = 0; n < lines.length; n++) {
+            final String line = lines[n].trim();
+            if (line.length() == 0 || line.charAt(0) == '#') continue;
+
+            final String[] parts = line.split("\\s+");
+            try {
+                final long time = Long.parseLong(parts[0]);
+                if (GestureRecorder.STEP_SELECTION.equals(parts[1]) && parts.length == 3) {
+                    script.addSelection(time, Integer.parseInt(parts[2]));
+                } else if (GestureRecorder.STEP_TOUCH.equals(parts[1]) && parts.length == 5) {
+                    script.addTouch(time, Integer.parseInt(parts[2]), Float.parseFloat(parts[3]),
+                            Float.parseFloat(parts[4]));
+                } else {
+                    throw new IllegalArgumentException("Unknown step on line " + (n + 1) + ": " + line);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid number on line " + (n + 1) + ": " + line, e);
+            } catch (ArrayIndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("Incomplete step on line " + (n + 1) + ": " + line, e);
+            }
+        }
+        return script;
+    }
+}
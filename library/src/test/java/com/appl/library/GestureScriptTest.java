@@ -0,0 +1,54 @@
+package com.appl.library;
+
+import android.view.MotionEvent;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class GestureScriptTest {
+
+    @Test
+    public void textFormRoundTrips() {
+        final GestureScript script = new GestureScript()
+                .addDrag(0, 10, 500, 100, 100, 3)
+                .addSelection(250, 42);
+
+        final GestureScript parsed = GestureScript.parse(script.toString());
+
+        assertEquals(script.toString(), parsed.toString());
+        assertEquals(6, parsed.getStepCount());
+        assertEquals(GestureScript.STEP_SELECTION, parsed.getStepType(5));
+        assertEquals(250, parsed.getStepTime(5));
+    }
+
+    @Test
+    public void dragSpreadsMovesEvenly() {
+        final GestureScript script = new GestureScript().addDrag(100, 10, 500, 100, 100, 3);
+
+        assertEquals(5, script.getStepCount());
+        assertEquals(100, script.getStepTime(0));
+        assertEquals(125, script.getStepTime(1));
+        assertEquals(175, script.getStepTime(3));
+        assertEquals(200, script.getStepTime(4));
+        assertEquals("100 touch " + MotionEvent.ACTION_DOWN + " 10.0 500.0", script.toString().split("\n")[0]);
+    }
+
+    @Test
+    public void parseSkipsCommentsAndEmptyLines() {
+        final GestureScript script = GestureScript.parse("# comment\n\n  0 select 3\n");
+
+        assertEquals(1, script.getStepCount());
+        assertEquals(GestureScript.STEP_SELECTION, script.getStepType(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseRejectsUnknownStep() {
+        GestureScript.parse("0 tap 1 2");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseRejectsInvalidNumber() {
+        GestureScript.parse("0 touch x 1.0 2.0");
+    }
+}
@@ -0,0 +1,134 @@
+package com.appl.library;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares arithmetic lookups of {@link ItemPositionModel} with brute force scan over item centers, which is how
+ * carousel searched its children before.
+ */
+public class ItemPositionModelTest {
+    private static final int CASES  = 100000;
+    private static final int MARGIN = 20;
+
+    private final Random mRandom = new Random(1777);
+    private final ItemPositionModel mModel = new ItemPositionModel();
+
+    private int mAnchorPosition;
+    private int mAnchorCenter;
+    private int mPitch;
+    private int mItemSize;
+    private int mCount;
+    private boolean mCircular;
+
+    @Test
+    public void positionAtMatchesNearestCenterScan() {
+        for (int n = 0; n < CASES; n++) {
+            randomize();
+            final int pixel = randomPixel();
+            assertEquals(describe("pixel " + pixel), scanPositionAt(pixel), mModel.getPositionAt(pixel));
+        }
+    }
+
+    @Test
+    public void firstAndLastPositionInMatchIntersectionScan() {
+        for (int n = 0; n < CASES; n++) {
+            randomize();
+            final int start = randomPixel();
+            final int end = start + mRandom.nextInt(4 * mPitch + mItemSize + 1);
+            assertEquals(describe("start " + start), scanFirstPositionIn(start), mModel.getFirstPositionIn(start));
+            assertEquals(describe("end " + end), scanLastPositionIn(end), mModel.getLastPositionIn(end));
+        }
+    }
+
+    @Test
+    public void positionAtPrefersLowerPositionOnTie() {
+        mModel.set(0, 0, 100, 80, 10, false);
+
+        assertEquals(0, mModel.getPositionAt(50));
+        assertEquals(1, mModel.getPositionAt(51));
+        assertEquals(0, mModel.getPositionAt(-50));
+        assertEquals(9, mModel.getPositionAt(5000));
+    }
+
+    @Test
+    public void circularModelIsNotClamped() {
+        mModel.set(3, 1000, 100, 80, 10, true);
+
+        assertEquals(-7, mModel.getPositionAt(0));
+        assertEquals(13, mModel.getPositionAt(2000));
+        assertEquals(2000, mModel.getCenter(13));
+    }
+
+    private void randomize() {
+        mPitch = 1 + mRandom.nextInt(400);
+        mItemSize = 1 + mRandom.nextInt(500);
+        mCount = 1 + mRandom.nextInt(200);
+        mCircular = mRandom.nextInt(4) == 0;
+        mAnchorPosition = mCircular ? mRandom.nextInt(2001) - 1000 : mRandom.nextInt(mCount);
+        mAnchorCenter = mRandom.nextInt(200001) - 100000;
+        mModel.set(mAnchorPosition, mAnchorCenter, mPitch, mItemSize, mCount, mCircular);
+    }
+
+    /**
+     * @return pixel from a little before first item to a little after last one
+     */
+    private int randomPixel() {
+        final int from = center(-MARGIN);
+        final int to = center(mCount + MARGIN);
+        return from + mRandom.nextInt(to - from + 1);
+    }
+
+    private int center(int position) {
+        return mAnchorCenter + (position - mAnchorPosition) * mPitch;
+    }
+
+    private int scanPositionAt(int pixel) {
+        int nearest = 0;
+        int nearestDistance = Integer.MAX_VALUE;
+        for (int p = -2 * MARGIN; p < mCount + 2 * MARGIN; p++) {
+            final int distance = Math.abs(center(p) - pixel);
+            if (distance < nearestDistance) {
+                nearest = p;
+                nearestDistance = distance;
+            }
+        }
+        return clamp(nearest);
+    }
+
+    private int scanFirstPositionIn(int start) {
+        final int reach = reach();
+        for (int p = -reach; p < mCount + reach; p++) {
+            if (center(p) + mItemSize / 2 > start) return clamp(p);
+        }
+        throw new AssertionError("No item ends after " + start);
+    }
+
+    private int scanLastPositionIn(int end) {
+        final int reach = reach();
+        for (int p = mCount + reach; p >= -reach; p--) {
+            if (center(p) - (mItemSize - mItemSize / 2) < end) return clamp(p);
+        }
+        throw new AssertionError("No item starts before " + end);
+    }
+
+    /**
+     * @return number of positions around items which are scanned, items much larger than pitch overlap many neighbours
+     */
+    private int reach() {
+        return 2 * MARGIN + 2 * (mItemSize / mPitch) + 8;
+    }
+
+    private int clamp(int position) {
+        if (mCircular) return position;
+        return Math.max(0, Math.min(position, mCount - 1));
+    }
+
+    private String describe(String what) {
+        return what + " with anchor " + mAnchorPosition + "@" + mAnchorCenter + ", pitch " + mPitch + ", size "
+                + mItemSize + ", count " + mCount + (mCircular ? ", circular" : "");
+    }
+}
@@ -0,0 +1,28 @@
+package com.appl.library;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadows.ShadowChoreographer;
+
+/**
+ * Runs animation callbacks one frame after they were posted, as display would, instead of right away. Otherwise
+ * callback which posts itself again would run over and over without clock moving.
+ */
+@Implements(Choreographer.class)
+public class ShadowFrameChoreographer extends ShadowChoreographer {
+    private final Handler mHandler = new Handler(Looper.myLooper());
+
+    @Implementation
+    public void postCallbackDelayed(int callbackType, Runnable action, Object token, long delayMillis) {
+        mHandler.postDelayed(action, delayMillis + CarouselDriver.FRAME_MS);
+    }
+
+    @Implementation
+    public void removeCallbacks(int callbackType, Runnable action, Object token) {
+        mHandler.removeCallbacks(action);
+    }
+}
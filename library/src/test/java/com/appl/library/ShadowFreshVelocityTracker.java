@@ -0,0 +1,22 @@
+package com.appl.library;
+
+import android.view.VelocityTracker;
+
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadows.ShadowVelocityTracker;
+import org.robolectric.util.ReflectionHelpers;
+import org.robolectric.util.ReflectionHelpers.ClassParameter;
+
+/**
+ * Gives every gesture new velocity tracker. Default shadow keeps coordinates of cleared samples, so tracker reused from
+ * pool mixes samples of earlier tests into velocity of fling.
+ */
+@Implements(VelocityTracker.class)
+public class ShadowFreshVelocityTracker extends ShadowVelocityTracker {
+
+    @Implementation
+    public static VelocityTracker obtain() {
+        return ReflectionHelpers.callConstructor(VelocityTracker.class, ClassParameter.from(String.class, null));
+    }
+}
@@ -0,0 +1,13 @@
+package com.appl.library;
+
+import android.widget.Scroller;
+
+import org.robolectric.annotation.Implements;
+
+/**
+ * Lets real {@link Scroller} run on clock of main looper. Default shadow does not simulate fling, its final position
+ * stays where fling started.
+ */
+@Implements(value = Scroller.class, callThroughByDefault = true)
+public class ShadowRealScroller {
+}
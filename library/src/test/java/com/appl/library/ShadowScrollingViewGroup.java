@@ -0,0 +1,48 @@
+package com.appl.library;
+
+import android.view.View;
+import android.view.ViewGroup;
+
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadows.ShadowViewGroup;
+
+import static org.robolectric.internal.Shadow.directlyOn;
+
+/**
+ * Keeps scroll offset of view groups in real fields of view. Default shadow remembers offset passed to scrollTo
+ * aside, so scrollBy, which adds to real fields, would start from zero every time.
+ */
+@Implements(ViewGroup.class)
+public class ShadowScrollingViewGroup extends ShadowViewGroup {
+
+    @Implementation
+    @Override
+    public void scrollTo(int x, int y) {
+        directlyOn(realView, View.class).scrollTo(x, y);
+    }
+
+    @Implementation
+    @Override
+    public int getScrollX() {
+        return directlyOn(realView, View.class).getScrollX();
+    }
+
+    @Implementation
+    @Override
+    public int getScrollY() {
+        return directlyOn(realView, View.class).getScrollY();
+    }
+
+    @Implementation
+    @Override
+    public void setScrollX(int value) {
+        directlyOn(realView, View.class).setScrollX(value);
+    }
+
+    @Implementation
+    @Override
+    public void setScrollY(int value) {
+        directlyOn(realView, View.class).setScrollY(value);
+    }
+}